@@ -0,0 +1,379 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.util.Random;
+
+/**
+ * A set of 64 bit boards kept next to a byte[file][rank] board. Square
+ * numbers are file * 8 + rank, so a1 = 0, a2 = 1, ..., h8 = 63.
+ *
+ * The byte board is shared, not copied: the parser changes it only
+ * through {@link #set(int, int, byte)} so that both stay in step, while
+ * the board analysis just wraps a board it reads.
+ *
+ * The position is also kept packed into four longs, one nibble per square
+ * holding the low four bits of the piece code, so that a snapshot of it
+ * is four long stores.
+ *
+ * A 64 bit Zobrist hash of the pieces is updated along with every square
+ * that is set. It covers the board only, like the FEN and the graph
+ * encoding, so the side to move and the castling rights are not part of
+ * it. The keys come from a fixed seed and are the same in every run.
+ *
+ * Sliding piece attacks are generated with classical rays. The eight ray
+ * directions are numbered in the order the board analysis walks them:
+ * the four diagonals of a bishop and then the four lines of a rook.
+ *
+ * @author Debasis
+ *
+ */
+final class BitboardPosition {
+
+	static final int[] FILE_STEP = { -1, 1, 1, -1, -1, 1, 0, 0 };
+
+	static final int[] RANK_STEP = { -1, 1, -1, 1, 0, 0, -1, 1 };
+
+	static final int BISHOP_FIRST_DIR = 0;
+
+	static final int ROOK_FIRST_DIR = 4;
+
+	static final int DIRECTIONS = 8;
+
+	private static final long[][] RAYS = new long[DIRECTIONS][64];
+
+	private static final int[][] STEPS = new int[DIRECTIONS][64];
+
+	private static final long[] KNIGHT_ATTACKS = new long[64];
+
+	private static final long[] KING_ATTACKS = new long[64];
+
+	/** knight targets in the order Knight.analyze has always listed them */
+	private static final int[][] KNIGHT_TARGETS = new int[64][];
+
+	/** Zobrist keys, indexed by piece code + 6 and square */
+	private static final long[][] ZOBRIST = new long[13][64];
+
+	private static final long ZOBRIST_SEED = 0x5eed1e55c0ffeeL;
+
+	private static final int[][] KNIGHT_OFFSETS = {
+		{ -2, -1 }, { -2, 1 }, { -1, -2 }, { 1, -2 }, { -1, 2 }, { 1, 2 }, { 2, -1 }, { 2, 1 }
+	};
+
+	static {
+		Random random = new Random(ZOBRIST_SEED);
+
+		for (int piece = 0; piece < ZOBRIST.length; piece++) {
+			for (int sq = 0; sq < 64; sq++) {
+				// the EMPTY row stays zero
+				ZOBRIST[piece][sq] = piece == 6 ? 0 : random.nextLong();
+			}
+		}
+
+		for (int sq = 0; sq < 64; sq++) {
+			int file = file(sq);
+			int rank = rank(sq);
+
+			for (int dir = 0; dir < DIRECTIONS; dir++) {
+				int f = file + FILE_STEP[dir];
+				int r = rank + RANK_STEP[dir];
+
+				STEPS[dir][sq] = onBoard(f, r) ? square(f, r) : -1;
+
+				if (STEPS[dir][sq] >= 0) {
+					KING_ATTACKS[sq] |= 1L << STEPS[dir][sq];
+				}
+
+				while (onBoard(f, r)) {
+					RAYS[dir][sq] |= 1L << square(f, r);
+					f += FILE_STEP[dir];
+					r += RANK_STEP[dir];
+				}
+			}
+
+			int[] targets = new int[KNIGHT_OFFSETS.length];
+			int n = 0;
+
+			for (int[] offset : KNIGHT_OFFSETS) {
+				int f = file + offset[0];
+				int r = rank + offset[1];
+
+				if (onBoard(f, r)) {
+					targets[n++] = square(f, r);
+					KNIGHT_ATTACKS[sq] |= 1L << square(f, r);
+				}
+			}
+
+			KNIGHT_TARGETS[sq] = new int[n];
+			System.arraycopy(targets, 0, KNIGHT_TARGETS[sq], 0, n);
+		}
+	}
+
+	final byte[][] board;
+
+	/** one board per piece code, indexed by code + 6 */
+	private final long[] pieces = new long[13];
+
+	private long occupied;
+
+	private final long[] packed = new long[4];
+
+	private long hash;
+
+	/**
+	 *
+	 * @param board the board to wrap, indexed [file][rank]
+	 */
+	BitboardPosition(byte[][] board) {
+		this.board = board;
+
+		for (int file = 0; file < 8; file++) {
+			for (int rank = 0; rank < 8; rank++) {
+				if (board[file][rank] != PGNParser.EMPTY) {
+					long bit = 1L << square(file, rank);
+					pieces[board[file][rank] + 6] |= bit;
+					occupied |= bit;
+					pack(square(file, rank), board[file][rank]);
+					hash ^= ZOBRIST[board[file][rank] + 6][square(file, rank)];
+				}
+			}
+		}
+	}
+
+	static int square(int file, int rank) {
+		return file << 3 | rank;
+	}
+
+	static int file(int sq) {
+		return sq >>> 3;
+	}
+
+	static int rank(int sq) {
+		return sq & 7;
+	}
+
+	private static boolean onBoard(int file, int rank) {
+		return file >= 0 && file < 8 && rank >= 0 && rank < 8;
+	}
+
+	byte get(int sq) {
+		return board[sq >>> 3][sq & 7];
+	}
+
+	/**
+	 * Puts a piece (or EMPTY) on a square of both the byte board and the
+	 * bit boards.
+	 *
+	 * @param file
+	 * @param rank
+	 * @param piece
+	 */
+	void set(int file, int rank, byte piece) {
+		long bit = 1L << square(file, rank);
+		byte old = board[file][rank];
+
+		if (old != PGNParser.EMPTY) {
+			pieces[old + 6] &= ~bit;
+			occupied &= ~bit;
+		}
+
+		if (piece != PGNParser.EMPTY) {
+			pieces[piece + 6] |= bit;
+			occupied |= bit;
+		}
+
+		pack(square(file, rank), piece);
+		hash ^= ZOBRIST[old + 6][square(file, rank)] ^ ZOBRIST[piece + 6][square(file, rank)];
+		board[file][rank] = piece;
+	}
+
+	private void pack(int sq, byte piece) {
+		int shift = (sq & 15) << 2;
+		packed[sq >>> 4] = packed[sq >>> 4] & ~(0xfL << shift) | (long)(piece & 0xf) << shift;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return the i-th long of the packed position, files 2i and 2i + 1
+	 */
+	long packed(int i) {
+		return packed[i];
+	}
+
+	/**
+	 *
+	 * @param packed0
+	 * @param packed1
+	 * @param packed2
+	 * @param packed3
+	 * @return the byte[file][rank] board of a packed position
+	 */
+	static byte[][] unpack(long packed0, long packed1, long packed2, long packed3) {
+		byte[][] board = new byte[8][8];
+		long[] words = { packed0, packed1, packed2, packed3 };
+
+		for (int sq = 0; sq < 64; sq++) {
+			// sign extend the nibble back to the piece code
+			board[sq >>> 3][sq & 7] = (byte)((int)(words[sq >>> 4] >>> ((sq & 15) << 2)) << 28 >> 28);
+		}
+
+		return board;
+	}
+
+	/**
+	 *
+	 * @return the Zobrist hash of the pieces on the board
+	 */
+	long hash() {
+		return hash;
+	}
+
+	long occupied() {
+		return occupied;
+	}
+
+	/**
+	 *
+	 * @param piece a signed piece code
+	 * @return the squares holding that piece
+	 */
+	long pieces(byte piece) {
+		return pieces[piece + 6];
+	}
+
+	/**
+	 *
+	 * @param dir
+	 * @param sq
+	 * @return the neighbour of sq in direction dir, or -1 off the board
+	 */
+	static int step(int dir, int sq) {
+		return STEPS[dir][sq];
+	}
+
+	/**
+	 *
+	 * @param dir
+	 * @param sq
+	 * @return all squares from sq (exclusive) to the edge in direction dir
+	 */
+	static long ray(int dir, int sq) {
+		return RAYS[dir][sq];
+	}
+
+	/**
+	 *
+	 * @param dir
+	 * @param squares a non empty subset of a ray in direction dir
+	 * @return the square of the subset closest to the start of the ray
+	 */
+	static int nearest(int dir, long squares) {
+		// the square number grows along the rays whose file or rank step is positive
+		return FILE_STEP[dir] * 8 + RANK_STEP[dir] > 0 ? Long.numberOfTrailingZeros(squares) : 63 - Long.numberOfLeadingZeros(squares);
+	}
+
+	/**
+	 *
+	 * @param dir
+	 * @param sq
+	 * @param occupied
+	 * @return the empty squares in direction dir up to and including the first occupied one
+	 */
+	static long rayAttacks(int dir, int sq, long occupied) {
+		long ray = RAYS[dir][sq];
+		long blockers = ray & occupied;
+
+		if (blockers != 0) {
+			ray ^= RAYS[dir][nearest(dir, blockers)];
+		}
+
+		return ray;
+	}
+
+	static long bishopAttacks(int sq, long occupied) {
+		return rayAttacks(0, sq, occupied) | rayAttacks(1, sq, occupied) | rayAttacks(2, sq, occupied) | rayAttacks(3, sq, occupied);
+	}
+
+	static long rookAttacks(int sq, long occupied) {
+		return rayAttacks(4, sq, occupied) | rayAttacks(5, sq, occupied) | rayAttacks(6, sq, occupied) | rayAttacks(7, sq, occupied);
+	}
+
+	static long knightAttacks(int sq) {
+		return KNIGHT_ATTACKS[sq];
+	}
+
+	static long kingAttacks(int sq) {
+		return KING_ATTACKS[sq];
+	}
+
+	static int[] knightTargets(int sq) {
+		return KNIGHT_TARGETS[sq];
+	}
+
+	/**
+	 *
+	 * @param piece an unsigned piece code
+	 * @param sq
+	 * @param occupied
+	 * @return the squares a piece of that kind on sq attacks
+	 */
+	static long attacks(int piece, int sq, long occupied) {
+		switch (piece) {
+		case PGNParser.BLACK_KNIGHT :
+			return KNIGHT_ATTACKS[sq];
+		case PGNParser.BLACK_BISHOP :
+			return bishopAttacks(sq, occupied);
+		case PGNParser.BLACK_ROOK :
+			return rookAttacks(sq, occupied);
+		case PGNParser.BLACK_QUEEN :
+			return bishopAttacks(sq, occupied) | rookAttacks(sq, occupied);
+		case PGNParser.BLACK_KING :
+			return KING_ATTACKS[sq];
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Tells whether moving a piece from one square to another would leave
+	 * the king of the given color attacked by an opponent bishop, rook or
+	 * queen, i.e. whether the piece is pinned.
+	 *
+	 * @param color WHITE or BLACK
+	 * @param from
+	 * @param to
+	 * @return false if there is no king of that color
+	 */
+	boolean isKingInCheckAfterMove(byte color, int from, int to) {
+		long king = pieces((byte)(PGNParser.BLACK_KING * color));
+
+		if (king == 0) {
+			return false;
+		}
+
+		int kingSq = Long.numberOfTrailingZeros(king);
+		long toBit = 1L << to;
+		long after = (occupied & ~(1L << from)) | toBit;
+		long queens = pieces((byte)(-PGNParser.BLACK_QUEEN * color));
+		long diagonal = (pieces((byte)(-PGNParser.BLACK_BISHOP * color)) | queens) & ~toBit;
+		long straight = (pieces((byte)(-PGNParser.BLACK_ROOK * color)) | queens) & ~toBit;
+
+		return (bishopAttacks(kingSq, after) & diagonal) != 0 || (rookAttacks(kingSq, after) & straight) != 0;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.util.Arrays;
+
+/**
+ * Graph encoder for the positions of a game, one after the other. Between
+ * two plies only the moved piece, a captured one and the pieces whose rays
+ * or steps run over a changed square can get other terms, so the terms of
+ * every piece are kept per square and only those pieces are analyzed
+ * again. The full term set of each position is still written, in the same
+ * order and with the same terms as GraphEncoder.
+ *
+ * Any sequence of positions may be encoded; the further apart they are,
+ * the more pieces have to be analyzed again. An encoder must not be shared
+ * between threads.
+ *
+ * @author Debasis
+ *
+ */
+public final class GameFeatureEncoder {
+
+	// the piece, 27 reachable squares of a queen, 8 attacks and defenses, and ray attacks
+	private static final int MAX_TERMS = 1 + 27 + 8 + 8 + 8;
+
+	private final GraphEncoder analyzer = new GraphEncoder();
+
+	private final long[] packed = new long[4];
+
+	private boolean loaded;
+
+	/** the cached terms of the piece on each square */
+	private final int[][] ids = new int[64][MAX_TERMS];
+
+	private final int[][] distances = new int[64][MAX_TERMS];
+
+	private final int[] counts = new int[64];
+
+	/** the squares the cached terms of each square depend on, itself included */
+	private final long[] dependencies = new long[64];
+
+	private int cachedSq;
+
+	private final GraphEncoder.TermSink cache = new GraphEncoder.TermSink() {
+
+		@Override
+		public void term(int id, int distance) {
+			ids[cachedSq][counts[cachedSq]] = id;
+			distances[cachedSq][counts[cachedSq]++] = distance;
+		}
+
+		@Override
+		public void endPiece() {
+		}
+	};
+
+	/**
+	 * Drops the cached terms, so that the next position is analyzed in full.
+	 */
+	public void reset() {
+		loaded = false;
+	}
+
+	/**
+	 *
+	 * @param move
+	 * @param isDoc whether the reachable squares are encoded
+	 * @param sink
+	 */
+	public void encode(PGNMove move, boolean isDoc, GraphEncoder.TermSink sink) {
+		long changed = update(move);
+
+		for (int rank = 0; rank < 8; rank++) {
+			for (int file = 0; file < 8; file++) {
+				int sq = BitboardPosition.square(file, rank);
+				byte piece = analyzer.get(sq);
+
+				if (piece == PGNParser.EMPTY) {
+					continue;
+				}
+
+				if ((dependencies[sq] & changed) != 0) {
+					dependencies[sq] = analyzer.analyze(sq, piece) | 1L << sq;
+					counts[sq] = 0;
+					cachedSq = sq;
+					analyzer.emit(sq, piece, true, cache);
+				}
+
+				emit(sq, isDoc, sink);
+			}
+		}
+	}
+
+	/**
+	 * Loads the packed position of the move.
+	 *
+	 * @return the squares that differ from the last position
+	 */
+	private long update(PGNMove move) {
+		if (!loaded) {
+			for (int i = 0; i < packed.length; i++) {
+				packed[i] = move.packed(i);
+			}
+
+			analyzer.load(packed[0], packed[1], packed[2], packed[3]);
+			Arrays.fill(dependencies, -1L);
+			loaded = true;
+
+			return -1L;
+		}
+
+		long changed = 0;
+
+		for (int i = 0; i < packed.length; i++) {
+			long word = move.packed(i);
+			long diff = packed[i] ^ word;
+
+			while (diff != 0) {
+				int nibble = Long.numberOfTrailingZeros(diff) >>> 2;
+				int sq = i << 4 | nibble;
+
+				analyzer.set(sq, (byte)((int)(word >>> (nibble << 2)) << 28 >> 28));
+				changed |= 1L << sq;
+				diff &= ~(0xfL << (nibble << 2));
+			}
+
+			packed[i] = word;
+		}
+
+		return changed;
+	}
+
+	private void emit(int sq, boolean isDoc, GraphEncoder.TermSink sink) {
+		int[] pieceIds = ids[sq];
+		int[] pieceDistances = distances[sq];
+
+		for (int i = 0; i < counts[sq]; i++) {
+			if (isDoc || pieceDistances[i] == GraphEncoder.NO_DISTANCE) {
+				sink.term(pieceIds[i], pieceDistances[i]);
+			}
+		}
+
+		sink.endPiece();
+	}
+
+}
@@ -0,0 +1,418 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import yacql.FeatureVocabulary;
+import yacql.PayloadAnalyzer;
+
+/**
+ * Writes the graph encoding of a board, i.e. the terms PGNMove.analyzeAll
+ * has always produced, without allocating per square or per term. The
+ * board is walked once, rank by rank; for every piece the sink receives
+ * the piece itself, then the squares it reaches (documents only), attacks,
+ * defends and ray-attacks, in that order. Terms are passed on as their
+ * FeatureVocabulary ids.
+ *
+ * An encoder keeps its buffers between calls and must not be shared
+ * between threads.
+ *
+ * @author Debasis
+ *
+ */
+public final class GraphEncoder {
+
+	/**
+	 * Receives the terms of an encoding.
+	 */
+	public interface TermSink {
+
+		/**
+		 *
+		 * @param id the FeatureVocabulary id of the term
+		 * @param distance the distance to a reachable square, NO_DISTANCE for all other terms
+		 */
+		void term(int id, int distance);
+
+		/**
+		 * Called after the last term of a piece.
+		 */
+		void endPiece();
+	}
+
+	public static final int NO_DISTANCE = 0;
+
+	// file + 1 then file - 1, one rank up
+	private static final int[] PAWN_CAPTURE_DIRS = { 1, 3 };
+
+	private static final int PAWN_PUSH_DIR = 7;
+
+	private static final char[][] WEIGHT_TEXT = new char[9][];
+
+	static {
+		for (int dist = 0; dist < WEIGHT_TEXT.length; dist++) {
+			WEIGHT_TEXT[dist] = Float.toString(weight(dist)).toCharArray();
+		}
+	}
+
+	private final byte[] squares = new byte[64];
+
+	private long occupied;
+
+	private final int[] reachable = new int[32];
+
+	private final int[] attacks = new int[8];
+
+	private final int[] defenses = new int[8];
+
+	private final int[] rayAttacks = new int[8];
+
+	private int reachableCount;
+
+	private int attackCount;
+
+	private int defenseCount;
+
+	private int rayAttackCount;
+
+	/** the squares whose contents the lists of the last analyzed piece depend on */
+	private long dependencies;
+
+	private final TextSink text = new TextSink();
+
+	/**
+	 *
+	 * @param distance
+	 * @return the payload weight of a reachable square; the max possible distance is 8
+	 */
+	public static float weight(int distance) {
+		return -7/64.0f * distance + 1;
+	}
+
+	/**
+	 *
+	 * @param board indexed [file][rank]
+	 * @param isDoc whether the reachable squares are encoded
+	 * @param sink
+	 */
+	public void encode(byte[][] board, boolean isDoc, TermSink sink) {
+		occupied = 0;
+
+		for (int sq = 0; sq < 64; sq++) {
+			squares[sq] = board[sq >>> 3][sq & 7];
+
+			if (squares[sq] != PGNParser.EMPTY) {
+				occupied |= 1L << sq;
+			}
+		}
+
+		encode(isDoc, sink);
+	}
+
+	/**
+	 *
+	 * @param move
+	 * @param isDoc whether the reachable squares are encoded
+	 * @param sink
+	 */
+	public void encode(PGNMove move, boolean isDoc, TermSink sink) {
+		load(move.packed(0), move.packed(1), move.packed(2), move.packed(3));
+		encode(isDoc, sink);
+	}
+
+	/**
+	 *
+	 * @param board indexed [file][rank]
+	 * @param isDoc
+	 * @return the encoding as whitespace separated terms, one line per piece
+	 */
+	public String encode(byte[][] board, boolean isDoc) {
+		text.buffer.setLength(0);
+		encode(board, isDoc, text);
+
+		return text.buffer.toString();
+	}
+
+	/**
+	 *
+	 * @param move
+	 * @param isDoc
+	 * @return the encoding as whitespace separated terms, one line per piece
+	 */
+	public String encode(PGNMove move, boolean isDoc) {
+		text.buffer.setLength(0);
+		encode(move, isDoc, text);
+
+		return text.buffer.toString();
+	}
+
+	byte get(int sq) {
+		return squares[sq];
+	}
+
+	/**
+	 * Changes a single square of the loaded board.
+	 *
+	 * @param sq
+	 * @param piece
+	 */
+	void set(int sq, byte piece) {
+		squares[sq] = piece;
+
+		if (piece != PGNParser.EMPTY) {
+			occupied |= 1L << sq;
+		} else {
+			occupied &= ~(1L << sq);
+		}
+	}
+
+	void load(long packed0, long packed1, long packed2, long packed3) {
+		occupied = 0;
+
+		for (int sq = 0; sq < 64; sq++) {
+			long word = sq < 32 ? (sq < 16 ? packed0 : packed1) : (sq < 48 ? packed2 : packed3);
+			squares[sq] = (byte)((int)(word >>> ((sq & 15) << 2)) << 28 >> 28);
+
+			if (squares[sq] != PGNParser.EMPTY) {
+				occupied |= 1L << sq;
+			}
+		}
+	}
+
+	private void encode(boolean isDoc, TermSink sink) {
+		for (int rank = 0; rank < 8; rank++) {
+			for (int file = 0; file < 8; file++) {
+				int sq = BitboardPosition.square(file, rank);
+				byte piece = squares[sq];
+
+				if (piece == PGNParser.EMPTY) {
+					continue;
+				}
+
+				analyze(sq, piece);
+				emit(sq, piece, isDoc, sink);
+			}
+		}
+	}
+
+	/**
+	 * Fills the square lists of the piece on sq, in the order of the piece
+	 * classes in PGNMove.
+	 *
+	 * @param sq
+	 * @param piece
+	 * @return the squares, other than sq, whose contents the lists depend on
+	 */
+	long analyze(int sq, byte piece) {
+		reachableCount = attackCount = defenseCount = rayAttackCount = 0;
+		dependencies = 0;
+
+		switch (Math.abs(piece)) {
+		case PGNParser.BLACK_PAWN :
+			// always towards the eighth rank, whatever the color of the pawn
+			int ahead = BitboardPosition.step(PAWN_PUSH_DIR, sq);
+
+			if (ahead >= 0) {
+				dependencies |= 1L << ahead;
+
+				if (squares[ahead] == PGNParser.EMPTY) {
+					reachable[reachableCount++] = ahead;
+				}
+			}
+
+			for (int dir : PAWN_CAPTURE_DIRS) {
+				int target = BitboardPosition.step(dir, sq);
+
+				if (target < 0) {
+					continue;
+				}
+
+				dependencies |= 1L << target;
+
+				if (isOpponent(piece, squares[target])) {
+					attacks[attackCount++] = target;
+				}
+			}
+
+			break;
+		case PGNParser.BLACK_KNIGHT :
+			for (int target : BitboardPosition.knightTargets(sq)) {
+				classify(piece, target);
+			}
+
+			dependencies = BitboardPosition.knightAttacks(sq);
+
+			break;
+		case PGNParser.BLACK_BISHOP :
+			scanRays(sq, piece, BitboardPosition.BISHOP_FIRST_DIR, BitboardPosition.BISHOP_FIRST_DIR + 4);
+			break;
+		case PGNParser.BLACK_ROOK :
+			scanRays(sq, piece, BitboardPosition.ROOK_FIRST_DIR, BitboardPosition.ROOK_FIRST_DIR + 4);
+			break;
+		case PGNParser.BLACK_QUEEN :
+			scanRays(sq, piece, 0, BitboardPosition.DIRECTIONS);
+			break;
+		case PGNParser.BLACK_KING :
+			for (int dir = 0; dir < BitboardPosition.DIRECTIONS; dir++) {
+				int target = BitboardPosition.step(dir, sq);
+
+				if (target >= 0) {
+					classify(piece, target);
+				}
+			}
+
+			dependencies = BitboardPosition.kingAttacks(sq);
+
+			break;
+		}
+
+		return dependencies;
+	}
+
+	private void classify(byte piece, int target) {
+		if (squares[target] == PGNParser.EMPTY) {
+			reachable[reachableCount++] = target;
+		} else if (isOpponent(piece, squares[target])) {
+			attacks[attackCount++] = target;
+		} else {
+			defenses[defenseCount++] = target;
+		}
+	}
+
+	/**
+	 * Walks the rays from firstDir up to but excluding lastDir: the empty
+	 * squares up to the first piece are reachable, the first piece is
+	 * defended or attacked, and in the latter case the piece behind it is
+	 * defended or ray-attacked. A ray depends on its squares up to the
+	 * piece behind an attacked blocker, or up to a defended one.
+	 */
+	private void scanRays(int sq, byte piece, int firstDir, int lastDir) {
+		for (int dir = firstDir; dir < lastDir; dir++) {
+			long ray = BitboardPosition.ray(dir, sq);
+			long blockers = ray & occupied;
+			long empty = ray;
+			int blocker = -1;
+
+			if (blockers != 0) {
+				blocker = BitboardPosition.nearest(dir, blockers);
+				empty &= ~(BitboardPosition.ray(dir, blocker) | 1L << blocker);
+			}
+
+			while (empty != 0) {
+				int target = BitboardPosition.nearest(dir, empty);
+				reachable[reachableCount++] = target;
+				empty &= ~(1L << target);
+			}
+
+			if (blocker < 0) {
+				dependencies |= ray;
+				continue;
+			}
+
+			if (!isOpponent(piece, squares[blocker])) {
+				defenses[defenseCount++] = blocker;
+				dependencies |= ray ^ BitboardPosition.ray(dir, blocker);
+				continue;
+			}
+
+			attacks[attackCount++] = blocker;
+			blockers = BitboardPosition.ray(dir, blocker) & occupied;
+
+			if (blockers == 0) {
+				dependencies |= ray;
+				continue;
+			}
+
+			int behind = BitboardPosition.nearest(dir, blockers);
+			dependencies |= ray ^ BitboardPosition.ray(dir, behind);
+
+			if (isOpponent(piece, squares[behind])) {
+				rayAttacks[rayAttackCount++] = behind;
+			} else {
+				defenses[defenseCount++] = behind;
+			}
+		}
+	}
+
+	void emit(int sq, byte piece, boolean isDoc, TermSink sink) {
+		sink.term(FeatureVocabulary.pieceSquare(piece, sq), NO_DISTANCE);
+
+		if (isDoc) {
+			for (int i = 0; i < reachableCount; i++) {
+				sink.term(FeatureVocabulary.pieceSquare(piece, reachable[i]), distance(sq, reachable[i]));
+			}
+		}
+
+		emitRelations(piece, attacks, attackCount, FeatureVocabulary.ATTACK, sink);
+		emitRelations(piece, defenses, defenseCount, FeatureVocabulary.DEFENSE, sink);
+		emitRelations(piece, rayAttacks, rayAttackCount, FeatureVocabulary.RAY_ATTACK, sink);
+
+		sink.endPiece();
+	}
+
+	private void emitRelations(byte piece, int[] targets, int count, int marker, TermSink sink) {
+		for (int i = 0; i < count; i++) {
+			sink.term(FeatureVocabulary.relation(piece, marker, squares[targets[i]], targets[i]), NO_DISTANCE);
+		}
+	}
+
+	private static boolean isOpponent(byte piece, byte other) {
+		return other != PGNParser.EMPTY && (piece ^ other) < 0;
+	}
+
+	/**
+	 * BoardCoordinate.getDistance of two squares on a line.
+	 */
+	private static int distance(int from, int to) {
+		int files = Math.abs(BitboardPosition.file(from) - BitboardPosition.file(to));
+		int ranks = Math.abs(BitboardPosition.rank(from) - BitboardPosition.rank(to));
+
+		if (files == 0) {
+			return ranks;
+		} else if (ranks == 0) {
+			return files;
+		}
+
+		return (files + ranks) >> 1;
+	}
+
+	/**
+	 * Appends the terms as PGNMove.analyzeAll has always written them:
+	 * reachable squares get their weight after the payload delimiter, each
+	 * term is followed by a space and each piece by a new line.
+	 */
+	private static class TextSink implements TermSink {
+
+		private final StringBuilder buffer = new StringBuilder(1024);
+
+		@Override
+		public void term(int id, int distance) {
+			buffer.append(FeatureVocabulary.chars(id));
+
+			if (distance != NO_DISTANCE) {
+				buffer.append(PayloadAnalyzer.delim).append(WEIGHT_TEXT[distance]);
+			}
+
+			buffer.append(' ');
+		}
+
+		@Override
+		public void endPiece() {
+			buffer.append('\n');
+		}
+	}
+
+}
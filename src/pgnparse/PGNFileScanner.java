@@ -0,0 +1,184 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a PGN file into games by scanning the mapped file bytes for lines
+ * ending in a result token. The game boundaries are the same as the ones
+ * found by PGNParser.splitPGN, but no line is decoded to a String.
+ *
+ * Files larger than the mapping window are mapped one window at a time; a
+ * window always starts at the first line of a game, so a slice never spans
+ * two mappings.
+ *
+ * @author Debasis
+ *
+ */
+public class PGNFileScanner implements Closeable {
+
+	private static final long DEFAULT_WINDOW_SIZE = 1L << 28;
+
+	private static final byte[][] RESULT_TOKENS = {
+		"1-0".getBytes(), "0-1".getBytes(), "1/2-1/2".getBytes(), "*".getBytes()
+	};
+
+	private FileChannel channel;
+
+	private long size;
+
+	private long windowSize;
+
+	private MappedByteBuffer window;
+
+	private long windowStart;
+
+	private int windowLimit;
+
+	private long position;
+
+	public PGNFileScanner(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @param windowSize the number of bytes mapped at a time
+	 * @throws IOException
+	 */
+	public PGNFileScanner(File file, long windowSize) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+		map(0);
+	}
+
+	/**
+	 *
+	 * @param start
+	 * @throws IOException
+	 */
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+		windowLimit = window.limit();
+	}
+
+	/**
+	 *
+	 * @return the next game, or null if no complete game is left
+	 * @throws IOException
+	 */
+	public PGNSlice nextSlice() throws IOException {
+		long gameStart = -1;
+
+		while (position < size) {
+			int lineStart = (int)(position - windowStart);
+			int lineEnd = lineStart;
+
+			while (lineEnd < windowLimit && !isLineEnd(window.get(lineEnd))) {
+				lineEnd++;
+			}
+
+			if (lineEnd == windowLimit && windowStart + windowLimit < size) {
+				// the line runs past the window: remap from the start of the game
+				long start = gameStart >= 0 ? gameStart : position;
+
+				if (start == windowStart) {
+					windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+				}
+
+				map(start);
+				position = start;
+				gameStart = -1;
+				continue;
+			}
+
+			int trimmedEnd = lineEnd;
+
+			while (trimmedEnd > lineStart && (window.get(trimmedEnd - 1) & 0xff) <= ' ') {
+				trimmedEnd--;
+			}
+
+			position = windowStart + lineEnd + (lineEnd < windowLimit ? 1 : 0);
+
+			if (trimmedEnd == lineStart) {
+				continue;
+			}
+
+			if (gameStart < 0) {
+				gameStart = windowStart + lineStart;
+			}
+
+			if (endsWithResult(lineStart, trimmedEnd)) {
+				int sliceStart = (int)(gameStart - windowStart);
+				return new PGNSlice(window, sliceStart, gameStart, lineEnd - sliceStart);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 *
+	 * @param b
+	 * @return
+	 */
+	private static boolean isLineEnd(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 *
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private boolean endsWithResult(int start, int end) {
+		for (byte[] token : RESULT_TOKENS) {
+			if (end - start < token.length) {
+				continue;
+			}
+
+			int i = token.length - 1;
+
+			while (i >= 0 && window.get(end - token.length + i) == token[i]) {
+				i--;
+			}
+
+			if (i < 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the games of a PGNReader. Unlike a java.util.Iterator it
+ * passes read and parse errors on as they are thrown, and it holds the
+ * source open until it is closed, so it should be used in a try/finally
+ * block even when it is read to the end:
+ *
+ * <pre>
+ * PGNGameIterator games = source.gameIterator();
+ * try {
+ *     while (games.hasNext()) {
+ *         PGNGame game = games.next();
+ *         ...
+ *     }
+ * } finally {
+ *     games.close();
+ * }
+ * </pre>
+ *
+ * @author Debasis
+ *
+ */
+public class PGNGameIterator implements Closeable {
+
+	private PGNReader reader;
+
+	private PGNGame next;
+
+	private boolean done;
+
+	PGNGameIterator(PGNReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 *
+	 * @return whether there is another game
+	 * @throws IOException
+	 * @throws PGNParseException
+	 * @throws MalformedMoveException
+	 */
+	public boolean hasNext() throws IOException, PGNParseException, MalformedMoveException {
+		if (next == null && !done) {
+			next = reader.readGame();
+			done = next == null;
+		}
+
+		return next != null;
+	}
+
+	/**
+	 *
+	 * @return the next game
+	 * @throws IOException
+	 * @throws PGNParseException
+	 * @throws MalformedMoveException
+	 */
+	public PGNGame next() throws IOException, PGNParseException, MalformedMoveException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		PGNGame game = next;
+		next = null;
+
+		return game;
+	}
+
+	@Override
+	public void close() throws IOException {
+		done = true;
+		next = null;
+		reader.close();
+	}
+
+}
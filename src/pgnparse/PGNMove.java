@@ -138,574 +138,6 @@ class BoardCoordinate {
     }    
 }
 
-
-interface ChessPiece {    
-    void analyze();
-}
-
-
-abstract class AbstractChessPiece implements ChessPiece {
-
-    int color;
-    int rowpos;
-    int colpos;
-
-    // Encoding symbols (arbitrarily chosen) for piece connectivity
-    // Assume: these symbols aren't a part of the PGN data
-    static final String attackingMarker = ">";
-    static final String defenseMarker = "<";
-    static final String rayAttackMarker = "=";
-    
-    List<BoardCoordinate> reachableSquares;
-    List<BoardCoordinate> attackingSquares;
-    List<BoardCoordinate> rayAttackingSquares;
-    List<BoardCoordinate> defenseSquares;
-
-    BoardCoordinate bc;
-
-    public List<BoardCoordinate> getReachable() { return reachableSquares; }
-    public List<BoardCoordinate> getAttacking() { return attackingSquares; }
-    public List<BoardCoordinate> getRayAttcking() { return rayAttackingSquares; }
-    public List<BoardCoordinate> getDefenses() { return defenseSquares; }
-
-    public AbstractChessPiece(BoardCoordinate bc, int pieceCode) throws Exception {
-        rowpos = bc.row;
-        colpos = bc.col;
-        color = bc.board[bc.row][bc.col] > 0 ? 1 : bc.board[bc.row][bc.col] == 0 ? 0 : -1;
-        
-        if (Math.abs(bc.board[bc.row][bc.col]) != Math.abs(pieceCode))
-            throw new Exception("Unexpected chess piece found at " + bc.row + ", " + bc.col);
-        
-        this.bc = bc;
-        
-        this.reachableSquares = new LinkedList<BoardCoordinate>();
-        this.attackingSquares = new LinkedList<BoardCoordinate>();
-        this.defenseSquares = new LinkedList<BoardCoordinate>();
-        this.rayAttackingSquares = new LinkedList<BoardCoordinate>();
-    }
-
-    boolean isOpponentPiece(byte piece) {
-        return Math.signum(piece) * this.color == -1 ? true : false;
-    }
-
-    boolean isFriendPiece(byte piece) {
-        return Math.signum(piece) * this.color == 1 ? true : false;
-    }	
-    
-    public void analyze() {
-        this.reachableSquares.clear();
-        this.attackingSquares.clear();
-        this.defenseSquares.clear();
-        this.rayAttackingSquares.clear();
-    }
-    
-    String encodeReachable(BoardCoordinate currPos, BoardCoordinate reachableSquare) {        
-        StringBuffer buff = new StringBuffer();
-        String pieceName = currPos.getPiece();
-        int dist = reachableSquare.getDistance(currPos);
-        // the max possible distance is 8
-        float wt = -7/64.0f * dist + 1;
-        buff.append(pieceName);
-        buff.append(reachableSquare.toString());
-        buff.append(PayloadAnalyzer.delim);
-        buff.append(wt);
-        return buff.toString();
-    }
-    
-    public String toString(boolean isDoc) {
-        StringBuffer buff = new StringBuffer();        
-        buff.append(bc.toString()).append(" ");
-        
-        if (isDoc) {
-            for (BoardCoordinate square: this.getReachable()) {
-                //buff.append(bc.getPiece() + square.toString() + " ");
-                buff.append(encodeReachable(bc, square));
-                buff.append(" ");
-            }
-        }
-        for (BoardCoordinate square: this.getAttacking()) {
-            buff.append(bc.getPiece() + attackingMarker + square.toString() + " ");
-        }
-        for (BoardCoordinate square: this.getDefenses()) {
-            buff.append(bc.getPiece() + defenseMarker + square.toString() + " ");
-        }
-        for (BoardCoordinate square: this.getRayAttcking()) {
-            buff.append(bc.getPiece() + rayAttackMarker + square.toString() + " ");
-        }
-        
-        return buff.toString();
-    }
-}
-
-
-class Pawn extends AbstractChessPiece {
-
-    public Pawn(BoardCoordinate bc) throws Exception {
-        super(bc, PGNParser.BLACK_PAWN);
-    }
-    
-    @Override
-    public void analyze() {
-        
-        super.analyze();
-        int i = rowpos;
-        int j = colpos + 1;
-        BoardCoordinate square = null;
-        
-        if (i < 8 && j < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY)
-                this.reachableSquares.add(square);
-        }
-        
-        i = rowpos + 1;
-        j = colpos + 1;
-        
-        if (i < 8 && j < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (isOpponentPiece(bc.board[i][j]))
-                this.attackingSquares.add(square);
-        }
-
-        i = rowpos - 1;
-        j = colpos + 1;
-        
-        if (i >= 0 && j < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (isOpponentPiece(bc.board[i][j]))
-                this.attackingSquares.add(square);
-        }
-    }
-}
-
-class Knight extends AbstractChessPiece {
-
-    public Knight(BoardCoordinate bc) throws Exception  {
-        super(bc, PGNParser.BLACK_KNIGHT);
-    }
-    
-    @Override
-    public void analyze() {
-        
-        super.analyze();
-        int i, j, ki, kj, di, dj, ii, jj;
-        BoardCoordinate square = null;
-                
-        i = rowpos;
-        j = colpos;
-        
-        for (ki = -1; ki <= 1; ki++) {
-            i = rowpos + ki;
-            
-            for (kj = -1; kj <= 1; kj++) {
-                j = colpos + kj;
-                
-                if (!(ki * kj == 0))
-                    continue;
-                
-                for (di = -1; di <=1; di += 2) {
-                    ii = i + di;
-                    
-                    for (dj = -1; dj <=1; dj += 2) {
-                        jj = j + dj;
-                        
-                        if (!(ii >= 0 && jj >= 0 && ii < 8 && jj < 8))
-                            continue;
-                        
-                        // check the fork by chess-board distance
-                        if (Math.abs(rowpos-ii) + Math.abs(colpos-jj) <= 2)
-                            continue;
-                        
-                        square = new BoardCoordinate(ii, jj, bc.board[ii][jj]);
-                        if (bc.board[ii][jj] == PGNParser.EMPTY)
-                            this.reachableSquares.add(square);
-
-                        else if (isOpponentPiece(bc.board[ii][jj]))
-                            this.attackingSquares.add(square);
-                        
-                        else if (isFriendPiece(bc.board[ii][jj]))
-                            this.defenseSquares.add(square);
-                    }
-                }
-            }
-        }        
-    }
-}
-
-
-class King extends Queen {
-
-    public King(BoardCoordinate bc) throws Exception  {
-        super(bc, PGNParser.BLACK_KING);
-    }
-    
-    @Override
-    public void analyze() {
-        
-        super.analyze();    // delegate responsibility to the queen
-        
-        // Filter the list on the basis of chess-board distance        
-        for (Iterator<BoardCoordinate> iter = this.reachableSquares.iterator(); iter.hasNext(); ) {
-            if (iter.next().getDistance(bc) > 1)
-                iter.remove();
-        }
-        for (Iterator<BoardCoordinate> iter = this.defenseSquares.iterator(); iter.hasNext(); ) {
-            if (iter.next().getDistance(bc) > 1)
-                iter.remove();
-        }
-        for (Iterator<BoardCoordinate> iter = this.attackingSquares.iterator(); iter.hasNext(); ) {
-            if (iter.next().getDistance(bc) > 1)
-                iter.remove();
-        }
-        rayAttackingSquares.clear();
-    }
-}
-
-class Queen extends AbstractChessPiece {
-
-    // A Queen esentially (is-a) (or has-a in case of Java since it
-    // doesn't support multiple inheritance.
-    Bishop bishop;
-    Rook   rook;
-
-    Queen(BoardCoordinate bc, int code) throws Exception {
-        super(bc, code);
-        bishop = new Bishop(bc, code);
-        rook = new Rook(bc, code);
-    }
-    
-    Queen(BoardCoordinate bc) throws Exception {
-        super(bc, PGNParser.BLACK_QUEEN);
-        bishop = new Bishop(bc, PGNParser.BLACK_QUEEN);
-        rook = new Rook(bc, PGNParser.BLACK_QUEEN);
-    }
-    
-    @Override
-    public void analyze() {
-        
-        super.analyze();
-        
-        bishop.analyze();
-        this.reachableSquares.addAll(bishop.reachableSquares);
-        this.attackingSquares.addAll(bishop.attackingSquares);
-        this.defenseSquares.addAll(bishop.defenseSquares);
-        this.rayAttackingSquares.addAll(bishop.rayAttackingSquares);
-        
-        
-        rook.analyze();
-        this.reachableSquares.addAll(rook.reachableSquares);
-        this.attackingSquares.addAll(rook.attackingSquares);
-        this.defenseSquares.addAll(rook.defenseSquares);
-        this.rayAttackingSquares.addAll(rook.rayAttackingSquares);        
-    }
-
-}
-
-class Rook extends AbstractChessPiece {
-
-    public Rook(BoardCoordinate bc, int code) throws Exception  {
-        super(bc, code);
-    }
-    
-    public Rook(BoardCoordinate bc) throws Exception  {
-        super(bc, PGNParser.BLACK_ROOK);
-    }
-    
-    @Override
-    public void analyze() {
-        
-        super.analyze();
-        
-        BoardCoordinate square = null;        
-        List<BoardCoordinate> attackList = null;
-        int i, j;
-        boolean rayAttack;
-        boolean blocked;
-        
-        // left-hrizontal
-        i = rowpos - 1;
-        j = colpos;
-        rayAttack = false;
-        blocked = false;
-        
-        // left-horizontal
-        while (i >= 0) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                defenseSquares.add(square);
-                blocked = true;
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-                blocked = true;
-            }
-            i--;
-        }
-        
-        // right-hrizontal
-        i = rowpos + 1;
-        j = colpos;
-        rayAttack = false;
-        blocked = false;
-        
-        while (i < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                defenseSquares.add(square);
-                blocked = true;
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            i++;
-        }
-
-        // up-vertical
-        i = rowpos;
-        j = colpos - 1;
-        rayAttack = false;
-        blocked = false;
-        
-        while (j >= 0) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                blocked = true;
-                defenseSquares.add(square);
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            j--;
-        }
-
-        // down-vertical
-        i = rowpos;
-        j = colpos + 1;
-        rayAttack = false;
-        blocked = false;
-        
-        while (j < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                blocked = true;
-                defenseSquares.add(square);
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            j++;
-        }
-        
-    }
-}
-
-
-class Bishop extends AbstractChessPiece {
-
-    public Bishop(BoardCoordinate bc, int code) throws Exception  {
-        super(bc, code);
-    }
-    
-    public Bishop(BoardCoordinate bc) throws Exception  {
-        super(bc, PGNParser.BLACK_BISHOP);
-    }
-
-    @Override
-    public void analyze() {
-        
-        super.analyze();
-        
-        BoardCoordinate square = null;        
-        List<BoardCoordinate> attackList = null;
-        int i, j;
-        boolean rayAttack;
-        boolean blocked;
-        
-        // upper-left-right diagonal
-        i = rowpos - 1;
-        j = colpos - 1;
-        rayAttack = false;
-        blocked = false;
-        
-        while (i >=0 && j >= 0) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                blocked = true;
-                defenseSquares.add(square);
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            i--;
-            j--;
-        }
-        
-        // lower  left-right diagonal
-        i = rowpos + 1;
-        j = colpos + 1;
-        blocked = false;
-        rayAttack = false;
-        
-        while (i < 8 && j < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                blocked = true;
-                defenseSquares.add(square);
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            i++;
-            j++;
-        }
-        
-        // upper-right-left diagonal
-        i = rowpos + 1;
-        j = colpos - 1;
-        blocked = false;
-        rayAttack = false;
-        
-        while (i < 8 && j >=0) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                blocked = true;
-                defenseSquares.add(square);
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            i++;
-            j--;
-        }
-        
-        // lower right-left diagonal
-        i = rowpos - 1;
-        j = colpos + 1;
-        blocked = false;
-        rayAttack = false;
-        
-        while (i >= 0 && j < 8) {
-            square = new BoardCoordinate(i, j, bc.board[i][j]);
-            if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
-                reachableSquares.add(square);
-            }
-            else if (isFriendPiece(bc.board[i][j])) {
-                blocked = true;
-                defenseSquares.add(square);
-                break;
-            }
-            else if (isOpponentPiece(bc.board[i][j])) {
-                blocked = true;
-                attackList = rayAttack? rayAttackingSquares : attackingSquares;
-                attackList.add(square);
-                if (rayAttack)
-                    break;  // ray attack of depth 1
-                rayAttack = true;
-            }
-            i--;
-            j++;
-        }
-    }
-}
-
-class ChessPieceGenerator {
-    
-    static AbstractChessPiece createPiece(BoardCoordinate bc) throws Exception {
-        // Generate the chess piece which corresponds to the current
-        // board position
-        AbstractChessPiece piece = null;
-        byte boardVal = bc.board[bc.row][bc.col];
-        int offset;
-        
-        if (boardVal == PGNParser.EMPTY)
-            return null;
-        
-        offset = Math.abs(boardVal - PGNParser.EMPTY);
-        switch (offset) {
-            case PGNParser.BLACK_BISHOP:
-                piece = new Bishop(bc);
-                break;
-            case PGNParser.BLACK_KNIGHT:
-                piece = new Knight(bc);
-                break;
-            case PGNParser.BLACK_ROOK:
-                piece = new Rook(bc);
-                break;
-            case PGNParser.BLACK_PAWN:
-                piece = new Pawn(bc);
-                break;
-            case PGNParser.BLACK_QUEEN:
-                piece = new Queen(bc);
-                break;                
-            case PGNParser.BLACK_KING:
-                piece = new King(bc);
-        }
-        return piece;
-    }
-}
-
 /**
  * 
  * @author Deyan Rizov
@@ -751,37 +183,150 @@ public class PGNMove {
 
     private String enpassantPieceSquare;
 
-    byte[][] board;
+    private int san = SANLexer.INVALID;
+
+    // the position before the move, one nibble per square (see BitboardPosition)
+    private final long packed0;
+
+    private final long packed1;
+
+    private final long packed2;
+
+    private final long packed3;
+
+    private final long positionHash;
+
+    // encoders keep their buffers between calls, so there is one per thread
+    private static final ThreadLocal<GraphEncoder> ENCODERS = new ThreadLocal<GraphEncoder>() {
+        @Override
+        protected GraphEncoder initialValue() {
+            return new GraphEncoder();
+        }
+    };
+
+    private volatile byte[][] board;
     
     /**
      * @param fullMove
      */
-    PGNMove(String fullMove, byte[][] board) throws MalformedMoveException {
-            this(fullMove, "", board);
+    PGNMove(String fullMove, BitboardPosition position, PGNParser parser) throws MalformedMoveException {
+            this(fullMove, "", position, parser);
     }
 
     /**
      * @param fullMove
      * @param comment
+     * @param position the position before the move
+     * @param parser supplies the piece symbols
      * @throws MalformedMoveException 
      */
-    PGNMove(String fullMove, String comment, byte[][] board) throws MalformedMoveException {
+    PGNMove(String fullMove, String comment, BitboardPosition position, PGNParser parser) throws MalformedMoveException {
             super();
             this.fullMove = fullMove;
             this.comment = comment;
-            parse();
-            
-            this.board = new byte[8][8];
+            parse(parser);
             
-            for (int i = 0; i < 8; i++) {
-                System.arraycopy(board[i], 0, this.board[i], 0, 8);
-            }
+            this.packed0 = position.packed(0);
+            this.packed1 = position.packed(1);
+            this.packed2 = position.packed(2);
+            this.packed3 = position.packed(3);
+            this.positionHash = position.hash();
     }
 
+    /**
+     * The board is expanded from the packed position on the first call.
+     * 
+     * @return the position before the move, indexed [file][rank]
+     */
     public byte[][] getBoard() {
+        byte[][] board = this.board;
+        
+        if (board == null) {
+            this.board = board = unpackBoard();
+        }
+        
         return board;
     }
     
+    /**
+     * The hash is kept up to date by the parser as pieces move, so this
+     * is a field read. Equal boards have equal hashes.
+     * 
+     * @return the Zobrist hash of the position before the move
+     */
+    public long getPositionHash() {
+        return positionHash;
+    }
+    
+    /**
+     * @param board a board indexed [file][rank]
+     * @return the same hash as getPositionHash() of a move made on that board
+     */
+    public static long getPositionHashStatic(byte[][] board) {
+        return new BitboardPosition(board).hash();
+    }
+    
+    /**
+     * @param i
+     * @return the i-th long of the packed position
+     */
+    long packed(int i) {
+        switch (i) {
+            case 0:
+                return packed0;
+            case 1:
+                return packed1;
+            case 2:
+                return packed2;
+            default:
+                return packed3;
+        }
+    }
+    
+    private byte[][] unpackBoard() {
+        return BitboardPosition.unpack(packed0, packed1, packed2, packed3);
+    }
+
+    /**
+     * @return the position before the move as 32 bytes: the four longs of
+     * the packed position, big endian
+     */
+    public byte[] getPackedBoard() {
+        byte[] bytes = new byte[32];
+        
+        for (int i = 0; i < 4; i++) {
+            long word = packed(i);
+            
+            for (int j = 0; j < 8; j++) {
+                bytes[i * 8 + j] = (byte)(word >>> (56 - 8 * j));
+            }
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * @param bytes
+     * @param offset where the 32 bytes of getPackedBoard() start
+     * @return the board, indexed [file][rank]
+     */
+    public static byte[][] unpackBoard(byte[] bytes, int offset) {
+        long[] words = new long[4];
+        
+        for (int i = 0; i < 32; i++) {
+            words[i >>> 3] = words[i >>> 3] << 8 | (bytes[offset + i] & 0xff);
+        }
+        
+        return BitboardPosition.unpack(words[0], words[1], words[2], words[3]);
+    }
+
+    /**
+     * @return the SANLexer descriptor of the move, INVALID for castles and end marks
+     */
+    int getSANDescriptor() {
+            return san;
+    }
+    
     /**
      * @return the comment
      */
@@ -996,54 +541,70 @@ public class PGNMove {
      * 
      * @throws MalformedMoveException
      */
-    private void parse() throws MalformedMoveException {
+    private void parse(PGNParser parser) throws MalformedMoveException {
             if (fullMove == null) {
                     throw new NullPointerException();
             }
 
             String move = fullMove;
 
-            if (move.startsWith(PGNParser.PAWN)) {
-                    this.piece = PGNParser.PAWN;
-            } else if (move.startsWith(PGNParser.KNIGHT)) {
-                    this.piece = PGNParser.KNIGHT;
-            } else if (move.startsWith(PGNParser.BISHOP)) {
-                    this.piece = PGNParser.BISHOP;
-            } else if (move.startsWith(PGNParser.ROOK)) {
-                    this.piece = PGNParser.ROOK;
-            } else if (move.startsWith(PGNParser.QUEEN)) {
-                    this.piece = PGNParser.QUEEN;
-            } else if (move.startsWith(PGNParser.KING)) {
-                    this.piece = PGNParser.KING;
+            if (move.startsWith(parser.getPawn())) {
+                    this.piece = parser.getPawn();
+            } else if (move.startsWith(parser.getKnight())) {
+                    this.piece = parser.getKnight();
+            } else if (move.startsWith(parser.getBishop())) {
+                    this.piece = parser.getBishop();
+            } else if (move.startsWith(parser.getRook())) {
+                    this.piece = parser.getRook();
+            } else if (move.startsWith(parser.getQueen())) {
+                    this.piece = parser.getQueen();
+            } else if (move.startsWith(parser.getKing())) {
+                    this.piece = parser.getKing();
             } else {
-                    this.piece = PGNParser.PAWN;
+                    this.piece = parser.getPawn();
             }
 
-            if (move.contains("x")) {
-                    this.captured = true;
-                    move = move.replace("x", "");
-            }
+            int length = move.length();
+            char[] stripped = null;
+            int strippedLength = 0;
 
-            if (move.contains("+")) {
-                    this.checked = true;
-                    move = move.replace("+", "");
+            // drop the capture and check marks in one pass, copying only if there are any
+            for (int i = 0; i < length; i++) {
+                    char c = move.charAt(i);
+
+                    if (c == 'x' || c == '+' || c == '#') {
+                            if (c == 'x') {
+                                    this.captured = true;
+                            } else if (c == '+') {
+                                    this.checked = true;
+                            } else {
+                                    this.checkMated = true;
+                            }
+
+                            if (stripped == null) {
+                                    stripped = new char[length];
+                                    move.getChars(0, i, stripped, 0);
+                                    strippedLength = i;
+                            }
+                    } else if (stripped != null) {
+                            stripped[strippedLength++] = c;
+                    }
             }
 
-            if (move.contains("#")) {
-                    this.checkMated = true;
-                    move = move.replace("#", "");
+            if (stripped != null) {
+                    move = new String(stripped, 0, strippedLength);
             }
 
             if (move.contains("=")) {
                     try {
                             String promotedPiece = move.substring(move.indexOf('=') + 1);
 
-                            if (promotedPiece.equals(PGNParser.PAWN)
-                                            || promotedPiece.equals(PGNParser.KNIGHT)
-                                            || promotedPiece.equals(PGNParser.BISHOP)
-                                            || promotedPiece.equals(PGNParser.ROOK)
-                                            || promotedPiece.equals(PGNParser.QUEEN)
-                                            || promotedPiece.equals(PGNParser.KING))
+                            if (promotedPiece.equals(parser.getPawn())
+                                            || promotedPiece.equals(parser.getKnight())
+                                            || promotedPiece.equals(parser.getBishop())
+                                            || promotedPiece.equals(parser.getRook())
+                                            || promotedPiece.equals(parser.getQueen())
+                                            || promotedPiece.equals(parser.getKing()))
                             {
                                     move = move.substring(0, move.indexOf('='));
                                     this.promoted = true;
@@ -1065,6 +626,8 @@ public class PGNMove {
             } else if (move.equals("1-0") || move.equals("0-1") || move.equals("1/2-1/2") || move.equals("*")) {
                     this.endGameMarked = true;
                     this.endGameMark = move;
+            } else {
+                    this.san = SANLexer.lex(move, parser.getPieceChars());
             }
 
             this.move = move;
@@ -1075,7 +638,7 @@ public class PGNMove {
         
         for (i = 7; i >= 0; i--) {
             for (j = 0; j < 8; j++) {
-                BoardCoordinate bc = new BoardCoordinate(i, j, board);
+                BoardCoordinate bc = new BoardCoordinate(i, j, getBoard());
                 System.out.print(bc.getPiece() + " \t");
             }
             System.out.println();
@@ -1091,15 +654,26 @@ public class PGNMove {
     }
     
     public String graphEncodingForQuery() {
-        return analyzeAll(this.board, false);        
+        return ENCODERS.get().encode(this, false);
     }
     
     public String graphEncoding() {
-        return analyzeAll(this.board, true);
+        return ENCODERS.get().encode(this, true);
+    }
+    
+    /**
+     * Streams the terms of graphEncoding() or graphEncodingForQuery()
+     * into a sink instead of building the text.
+     * 
+     * @param isDoc
+     * @param sink
+     */
+    public void graphEncoding(boolean isDoc, GraphEncoder.TermSink sink) {
+        ENCODERS.get().encode(this, isDoc, sink);
     }
     
     public String getFEN() {
-        return getFENStatic(board);
+        return getFENStatic(unpackBoard());
     }
 
     public static String getFENStatic(byte[][] board) {
@@ -1140,139 +714,41 @@ public class PGNMove {
     }
     
     static public String analyzeAll(byte[][] board, boolean isDoc) {
-        StringBuffer buff = new StringBuffer();
-        int i, j;
-        AbstractChessPiece thisPiece = null;
-        
-        for (i = 0; i < 8; i++) {
-            for (j = 0; j < 8; j++) {
-                
-                //String pen = BoardPos.indexToPENStr(j, i);
-                BoardCoordinate bc = new BoardCoordinate(i, j, board); //new BoardCoordinate(pen, board);
-                try {
-                    thisPiece = ChessPieceGenerator.createPiece(bc);
-                }
-                catch (Exception ex) {
-                    System.out.println(ex);
-                }
-                
-                if (thisPiece == null)
-                    continue;
-                
-                thisPiece.analyze();
-                buff.append(thisPiece.toString(isDoc));
-                buff.append("\n");
-            }
-        }        
-        return buff.toString();
+        return ENCODERS.get().encode(board, isDoc);
     }
         
     public static void main(String[] args) {
-        byte[][] boardPos = null;
-        BoardCoordinate bc = null;
-        
-        if (false) {
-           byte[][] b = {
-                { PGNParser.WHITE_ROOK, PGNParser.WHITE_PAWN, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_PAWN, PGNParser.BLACK_ROOK, },
-                { PGNParser.WHITE_KNIGHT, PGNParser.WHITE_PAWN, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_PAWN, PGNParser.EMPTY, },
-                { PGNParser.WHITE_BISHOP, PGNParser.WHITE_PAWN, PGNParser.EMPTY, PGNParser.WHITE_QUEEN, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_PAWN, PGNParser.EMPTY, },
-                { PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_BISHOP, PGNParser.EMPTY, PGNParser.BLACK_QUEEN, },
-                { PGNParser.WHITE_ROOK, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.WHITE_PAWN, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, },
-                { PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_KNIGHT, PGNParser.BLACK_PAWN, PGNParser.BLACK_ROOK, },
-                { PGNParser.WHITE_KING, PGNParser.BLACK_BISHOP, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_PAWN, PGNParser.BLACK_KING, },
-                { PGNParser.EMPTY, PGNParser.WHITE_PAWN, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.EMPTY, PGNParser.BLACK_PAWN, PGNParser.EMPTY }
-            };
-            boardPos = b;
-            
-            if (false) {
-                try {
-                    AbstractChessPiece piece = new Queen(new BoardCoordinate("c4", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);
-                }
-                catch (Exception ex) {
-                    System.out.println(ex);
-                }
-            }
-            else if (false) {
-                try {
-                    AbstractChessPiece piece = new Queen(new BoardCoordinate(3, 2, boardPos));
-                    piece.analyze();
-                    System.out.println(piece);                
-                }
-                catch (Exception ex) {
-                    System.out.println(ex);
-                }                
-            }
-            else if (true)
-                System.out.println(PGNMove.analyzeAll(boardPos, true));
-        }
-        else if (true) {
-        
-            PENPositionList penPosList = new PENPositionList();
-            penPosList.addPiece("a2", PGNParser.WHITE_PAWN);
-            penPosList.addPiece("b2", PGNParser.WHITE_PAWN);
-            penPosList.addPiece("c2", PGNParser.WHITE_PAWN);
-            penPosList.addPiece("e5", PGNParser.WHITE_PAWN);
-            penPosList.addPiece("h2", PGNParser.WHITE_PAWN);
-            penPosList.addPiece("a1", PGNParser.WHITE_ROOK);
-            penPosList.addPiece("b1", PGNParser.WHITE_KNIGHT);
-            penPosList.addPiece("c1", PGNParser.WHITE_BISHOP);
-            penPosList.addPiece("e1", PGNParser.WHITE_ROOK);
-            penPosList.addPiece("g1", PGNParser.WHITE_KING);
-            penPosList.addPiece("c4", PGNParser.WHITE_QUEEN);
-            
-            penPosList.addPiece("a8", PGNParser.BLACK_ROOK);
-            penPosList.addPiece("d8", PGNParser.BLACK_QUEEN);
-            penPosList.addPiece("f8", PGNParser.BLACK_ROOK);
-            penPosList.addPiece("g8", PGNParser.BLACK_KING);
-            penPosList.addPiece("d6", PGNParser.BLACK_BISHOP);
-            penPosList.addPiece("g2", PGNParser.BLACK_BISHOP);
-            penPosList.addPiece("f6", PGNParser.BLACK_KNIGHT);
-            penPosList.addPiece("a7", PGNParser.BLACK_PAWN);
-            penPosList.addPiece("b7", PGNParser.BLACK_PAWN);
-            penPosList.addPiece("c7", PGNParser.BLACK_PAWN);
-            penPosList.addPiece("f7", PGNParser.BLACK_PAWN);
-            penPosList.addPiece("g7", PGNParser.BLACK_PAWN);
-            penPosList.addPiece("h7", PGNParser.BLACK_PAWN);
-
-            System.out.println(penPosList);
-            boardPos = penPosList.getBoard();
-            
-            if (false) {
-                try {
-                    AbstractChessPiece piece = new Queen(new BoardCoordinate("c4", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);
-
-                    piece = new Rook(new BoardCoordinate("e1", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);
-
-                    piece = new Bishop(new BoardCoordinate("c1", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);
-
-                    piece = new Pawn(new BoardCoordinate("e5", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);
-
-                    piece = new Knight(new BoardCoordinate("f6", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);            
-
-                    piece = new King(new BoardCoordinate("g1", boardPos));
-                    piece.analyze();
-                    System.out.println(piece);
-                }
-                catch (Exception ex) {
-                    System.out.println(ex);
-                }                
-            }
-            
-            System.out.println(PGNMove.analyzeAll(boardPos, true));
-            System.out.println(PGNMove.getFENStatic(boardPos));
-            
-        }            
+        PENPositionList penPosList = new PENPositionList();
+        penPosList.addPiece("a2", PGNParser.WHITE_PAWN);
+        penPosList.addPiece("b2", PGNParser.WHITE_PAWN);
+        penPosList.addPiece("c2", PGNParser.WHITE_PAWN);
+        penPosList.addPiece("e5", PGNParser.WHITE_PAWN);
+        penPosList.addPiece("h2", PGNParser.WHITE_PAWN);
+        penPosList.addPiece("a1", PGNParser.WHITE_ROOK);
+        penPosList.addPiece("b1", PGNParser.WHITE_KNIGHT);
+        penPosList.addPiece("c1", PGNParser.WHITE_BISHOP);
+        penPosList.addPiece("e1", PGNParser.WHITE_ROOK);
+        penPosList.addPiece("g1", PGNParser.WHITE_KING);
+        penPosList.addPiece("c4", PGNParser.WHITE_QUEEN);
+
+        penPosList.addPiece("a8", PGNParser.BLACK_ROOK);
+        penPosList.addPiece("d8", PGNParser.BLACK_QUEEN);
+        penPosList.addPiece("f8", PGNParser.BLACK_ROOK);
+        penPosList.addPiece("g8", PGNParser.BLACK_KING);
+        penPosList.addPiece("d6", PGNParser.BLACK_BISHOP);
+        penPosList.addPiece("g2", PGNParser.BLACK_BISHOP);
+        penPosList.addPiece("f6", PGNParser.BLACK_KNIGHT);
+        penPosList.addPiece("a7", PGNParser.BLACK_PAWN);
+        penPosList.addPiece("b7", PGNParser.BLACK_PAWN);
+        penPosList.addPiece("c7", PGNParser.BLACK_PAWN);
+        penPosList.addPiece("f7", PGNParser.BLACK_PAWN);
+        penPosList.addPiece("g7", PGNParser.BLACK_PAWN);
+        penPosList.addPiece("h7", PGNParser.BLACK_PAWN);
+
+        System.out.println(penPosList);
+        byte[][] boardPos = penPosList.getBoard();
+
+        System.out.println(PGNMove.analyzeAll(boardPos, true));
+        System.out.println(PGNMove.getFENStatic(boardPos));
     }
 }
@@ -24,25 +24,30 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
+ * A parser is immutable once created: it carries its own piece symbols, so
+ * any number of threads may parse with the same or with differently
+ * localized parsers at the same time.
  *
  * @author Deyan Rizov
  *
  */
 public class PGNParser {
 	
-	public static String PAWN = "P";
+	public static final String PAWN = "P";
 	
-	public static String KNIGHT = "N";
+	public static final String KNIGHT = "N";
 	
-	public static String BISHOP = "B";
+	public static final String BISHOP = "B";
 	
-	public static String ROOK = "R";
+	public static final String ROOK = "R";
 	
-	public static String QUEEN = "Q";
+	public static final String QUEEN = "Q";
 	
-	public static String KING = "K";
+	public static final String KING = "K";
 	
 	static final byte WHITE = -1;
 	
@@ -74,33 +79,38 @@ public class PGNParser {
 	
 	static final byte BLACK_KING = 6;
 	
-	private static String MOVE_TYPE_1_RE = "[a-h][1-8]";
+	private static final byte[][] KNIGHT_SEARCH_PATH = { { -1, 2 }, { 1, 2 }, { -1, -2 }, { 1, -2 }, { -2, 1 }, { -2, -1 }, { 2, -1 }, { 2, 1 } };
 	
-	private static final int MOVE_TYPE_1_LENGTH = 2;
+	private static final byte[][] BISHOP_SEARCH_PATH = { {1, 1}, {1, -1}, {-1, -1}, {-1, 1} };
 	
-	private static String MOVE_TYPE_2_RE = "[" + PAWN + KNIGHT + BISHOP + ROOK + QUEEN + KING + "][a-h][1-8]";
+	private static final byte[][] ROOK_SEARCH_PATH = { {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
 	
-	private static final int MOVE_TYPE_2_LENGTH = 3;
+	private static final byte[][] QUEEN_KING_SEARCH_PATH = { {1, 1}, {1, -1}, {-1, -1}, {-1, 1}, {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
 	
-	private static String MOVE_TYPE_3_RE = "[" + PAWN + KNIGHT + BISHOP + ROOK + QUEEN + KING + "][a-h][a-h][1-8]";
+	private static final int PARALLEL_PARSE_THRESHOLD = 32;
 	
-	private static final int MOVE_TYPE_3_LENGTH = 4;
+	private static volatile PGNParser defaultParser = new PGNParser();
 	
-	private static String MOVE_TYPE_4_RE = "[" + PAWN + KNIGHT + BISHOP + ROOK + QUEEN + KING + "][a-h][1-8][a-h][1-8]";
+	private final String pawn;
 	
-	private static final int MOVE_TYPE_4_LENGTH = 5;
+	private final String knight;
 	
-	private static String MOVE_TYPE_5_RE = "[a-h][a-h][1-8]";
+	private final String bishop;
 	
-	private static String MOVE_TYPE_6_RE = "[" + PAWN + KNIGHT + BISHOP + ROOK + QUEEN + KING + "][1-8][a-h][1-8]";
+	private final String rook;
 	
-	private static final byte[][] KNIGHT_SEARCH_PATH = { { -1, 2 }, { 1, 2 }, { -1, -2 }, { 1, -2 }, { -2, 1 }, { -2, -1 }, { 2, -1 }, { 2, 1 } };
+	private final String queen;
 	
-	private static final byte[][] BISHOP_SEARCH_PATH = { {1, 1}, {1, -1}, {-1, -1}, {-1, 1} };
+	private final String king;
 	
-	private static final byte[][] ROOK_SEARCH_PATH = { {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
+	private final char[] pieceChars;
 	
-	private static final byte[][] QUEEN_KING_SEARCH_PATH = { {1, 1}, {1, -1}, {-1, -1}, {-1, 1}, {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
+	/**
+	 * A parser for the standard English piece symbols.
+	 */
+	public PGNParser() {
+		this(PAWN, KNIGHT, BISHOP, ROOK, QUEEN, KING);
+	}
 	
 	/**
 	 * 
@@ -111,16 +121,78 @@ public class PGNParser {
 	 * @param queen
 	 * @param king
 	 */
+	public PGNParser(String pawn, String knight, String bishop, String rook, String queen, String king) {
+		this.pawn = pawn;
+		this.knight = knight;
+		this.bishop = bishop;
+		this.rook = rook;
+		this.queen = queen;
+		this.king = king;
+		
+		this.pieceChars = new char[] {
+				pawn.charAt(0), knight.charAt(0), bishop.charAt(0), rook.charAt(0), queen.charAt(0), king.charAt(0)
+		};
+	}
+	
+	/**
+	 * 
+	 * @return the parser used by the static parse methods
+	 */
+	public static PGNParser getDefault() {
+		return defaultParser;
+	}
+	
+	/**
+	 * Replaces the parser used by the static parse methods. Parses already
+	 * running keep the symbols they started with.
+	 * 
+	 * @param pawn
+	 * @param knight
+	 * @param bishop
+	 * @param rook
+	 * @param queen
+	 * @param king
+	 * @deprecated create a parser with {@link #PGNParser(String, String, String, String, String, String)} instead
+	 */
+	@Deprecated
 	public static void setPieces(String pawn, String knight, String bishop, String rook, String queen, String king) {
-		PAWN = pawn;
-		KNIGHT = knight;
-		BISHOP = bishop;
-		ROOK = rook;
-		QUEEN = queen;
-		KING = king;
+		defaultParser = new PGNParser(pawn, knight, bishop, rook, queen, king);
+	}
+	
+	public String getPawn() {
+		return pawn;
+	}
+	
+	public String getKnight() {
+		return knight;
+	}
+	
+	public String getBishop() {
+		return bishop;
+	}
+	
+	public String getRook() {
+		return rook;
+	}
+	
+	public String getQueen() {
+		return queen;
+	}
+	
+	public String getKing() {
+		return king;
+	}
+	
+	/**
+	 * 
+	 * @return the first characters of the pawn..king symbols, as used by SANLexer
+	 */
+	char[] getPieceChars() {
+		return pieceChars;
 	}
 
 	/**
+	 * Parses with the default parser.
 	 * 
 	 * @param pgn
 	 * @return
@@ -130,6 +202,23 @@ public class PGNParser {
 	 * @throws NullPointerException 
 	 */
 	public static List<PGNGame> parse(String pgn) throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
+		return defaultParser.parseGames(pgn);
+	}
+	
+	public static List<PGNGame> parse(String pgn, boolean force) throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
+		return defaultParser.parseGames(pgn, force);
+	}
+	
+	/**
+	 * 
+	 * @param pgn
+	 * @return
+	 * @throws PGNParseException
+	 * @throws IOException
+	 * @throws MalformedMoveException 
+	 * @throws NullPointerException 
+	 */
+	public List<PGNGame> parseGames(String pgn) throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
 		List<PGNGame> games = new LinkedList<PGNGame>();
 		List<String> pgnSources = PGNParser.splitPGN(pgn);
 		
@@ -146,7 +235,7 @@ public class PGNParser {
 		return games;
 	}
 	
-	public static List<PGNGame> parse(String pgn, boolean force) throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
+	public List<PGNGame> parseGames(String pgn, boolean force) throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
 		List<PGNGame> games = new LinkedList<PGNGame>();
 		List<String> pgnSources = PGNParser.splitPGN(pgn);
 		
@@ -172,6 +261,100 @@ public class PGNParser {
 		return games;
 	}
 	
+	/**
+	 * Parses the games on a fork-join pool. Games are independent of each
+	 * other, so they can be parsed in any order; the returned list keeps the
+	 * order of the sources.
+	 * 
+	 * @param sources the texts of the games
+	 * @param force if true, games that fail to parse are skipped
+	 * @param threads
+	 * @return
+	 * @throws PGNParseException
+	 * @throws IOException
+	 * @throws MalformedMoveException
+	 */
+	List<PGNGame> parseParallel(List<? extends GameText> sources, boolean force, int threads) throws PGNParseException, IOException, MalformedMoveException {
+		PGNGame[] games = new PGNGame[sources.size()];
+		Exception[] errors = new Exception[sources.size()];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		
+		try {
+			pool.invoke(new ParseTask(sources, games, errors, 0, games.length));
+		} finally {
+			pool.shutdown();
+		}
+		
+		List<PGNGame> list = new ArrayList<PGNGame>(games.length);
+		
+		// Report errors in source order, as the sequential parse would
+		for (int i = 0; i < games.length; i++) {
+			Exception e = errors[i];
+			
+			if (e == null) {
+				list.add(games[i]);
+			} else if (e instanceof PGNParseException) {
+				if (!force) {
+					throw (PGNParseException)e;
+				}
+				
+				e.printStackTrace();
+			} else if (e instanceof IOException) {
+				throw (IOException)e;
+			} else if (e instanceof MalformedMoveException) {
+				throw (MalformedMoveException)e;
+			} else {
+				throw (RuntimeException)e;
+			}
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * Parses a range of the sources, splitting it in halves until it is
+	 * small enough to be parsed by one worker.
+	 */
+	private class ParseTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private List<? extends GameText> sources;
+		
+		private PGNGame[] games;
+		
+		private Exception[] errors;
+		
+		private int from;
+		
+		private int to;
+		
+		ParseTask(List<? extends GameText> sources, PGNGame[] games, Exception[] errors, int from, int to) {
+			this.sources = sources;
+			this.games = games;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from > PARALLEL_PARSE_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ParseTask(sources, games, errors, from, mid), new ParseTask(sources, games, errors, mid, to));
+				return;
+			}
+			
+			for (int i = from; i < to; i++) {
+				try {
+					games[i] = parsePGNGame(sources.get(i).decode());
+				} catch (Exception e) {
+					errors[i] = e;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 * @param pgn
@@ -181,8 +364,8 @@ public class PGNParser {
 	 * @throws MalformedMoveException 
 	 * @throws NullPointerException 
 	 */
-	private static PGNGame parsePGNGame(String pgn) throws IOException, PGNParseException, NullPointerException, MalformedMoveException {
-		byte[][] board = createDefaultBoard();
+	PGNGame parsePGNGame(String pgn) throws IOException, PGNParseException, NullPointerException, MalformedMoveException {
+		BitboardPosition position = new BitboardPosition(createDefaultBoard());
 		final int[] color = { WHITE };
 		PGNGame game = new PGNGame(pgn);
 		BufferedReader br = new BufferedReader(new StringReader(pgn));
@@ -250,7 +433,7 @@ public class PGNParser {
 			}
 			
 			try {
-				handleRawMoves(rawMoves, game, board, color);
+				handleRawMoves(rawMoves, game, position, color);
 			} catch (PGNParseException e) {
                                 e.printStackTrace();
 				///throw new PGNParseException(game.toString(), e);
@@ -265,11 +448,11 @@ public class PGNParser {
 	 * @param rawMoves
 	 * @param move
 	 * @param game
-	 * @param board
+	 * @param position
 	 * @throws MalformedMoveException
 	 * @throws PGNParseException
 	 */
-	private static void handleRawMoves(String[] rawMoves, PGNGame game, byte[][] board, int[] color) throws MalformedMoveException, PGNParseException, NullPointerException {
+	private void handleRawMoves(String[] rawMoves, PGNGame game, BitboardPosition position, int[] color) throws MalformedMoveException, PGNParseException, NullPointerException {
 		PGNMove move = null;
 		
 		for (int i = 0; i < rawMoves.length; i++) {
@@ -278,7 +461,7 @@ public class PGNParser {
 			} else if (rawMoves[i].startsWith("{") && rawMoves[i].endsWith("}")) {
 				move.setComment(rawMoves[i].substring(1, rawMoves[i].length() - 1));
 			} else {
-				if (validateMove(move = new PGNMove(rawMoves[i], board))) {
+				if (validateMove(move = new PGNMove(rawMoves[i], position, this))) {
 					
 					if (color[0] == WHITE) {
 						move.setColor(Color.white);
@@ -287,7 +470,7 @@ public class PGNParser {
 					}
 					
 					game.addMove(move);
-					updateNextMove(move, board);
+					updateNextMove(move, position);
                                         
                                         ///move.printBoard();
                                         
@@ -306,9 +489,29 @@ public class PGNParser {
 	 * @return
 	 * @throws IOException
 	 */
-	private static List<String> splitPGN(String pgn) throws IOException {
+	static List<String> splitPGN(String pgn) throws IOException {
 		List<String> pgnGames = new LinkedList<String>();
 		BufferedReader br = new BufferedReader(new StringReader(pgn));
+		String game;
+		
+		while ((game = nextPGNGame(br)) != null) {
+			pgnGames.add(game);
+		}
+		
+		br.close();
+		
+		return pgnGames;
+	}
+	
+	/**
+	 * Reads the text of the next game, i.e. everything up to and including
+	 * the line that ends with the game result.
+	 * 
+	 * @param br
+	 * @return the game text, or null if no complete game is left
+	 * @throws IOException
+	 */
+	static String nextPGNGame(BufferedReader br) throws IOException {
 		String line;
 		StringBuilder buffer = new StringBuilder();
 		
@@ -319,27 +522,24 @@ public class PGNParser {
 				buffer.append(line + "\r\n");
 				
 				if (line.endsWith("1-0") || line.endsWith("0-1") || line.endsWith("1/2-1/2") || line.endsWith("*")) {
-					pgnGames.add(buffer.toString());
-					buffer.delete(0, buffer.length());
+					return buffer.toString();
 				}
 			}
 			
 		}
 		
-		br.close();
-		
-		return pgnGames;
+		return null;
 	}
 	
 	/**
 	 * 
 	 * @param move
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException 
 	 */
-	private static void updateNextMove(PGNMove move, byte[][] board) throws PGNParseException {
-                ///byte[][] board = move.getBoard();                        
-		String strippedMove = move.getMove();
+	private void updateNextMove(PGNMove move, BitboardPosition position) throws PGNParseException {
+		byte[][] board = position.board;
+		int san = move.getSANDescriptor();
                 
 		byte color;
 		
@@ -354,29 +554,29 @@ public class PGNParser {
 				move.setKingSideCastle(true);
 				
 				if (move.getColor() == Color.white) {
-					board[6][0] = board[4][0];
-					board[5][0] = board[7][0];
-					board[4][0] = EMPTY;
-					board[7][0] = EMPTY;
+					position.set(6, 0, board[4][0]);
+					position.set(5, 0, board[7][0]);
+					position.set(4, 0, EMPTY);
+					position.set(7, 0, EMPTY);
 				} else {
-					board[6][7] = board[4][7];
-					board[5][7] = board[7][7];
-					board[4][7] = EMPTY;
-					board[7][7] = EMPTY;
+					position.set(6, 7, board[4][7]);
+					position.set(5, 7, board[7][7]);
+					position.set(4, 7, EMPTY);
+					position.set(7, 7, EMPTY);
 				}
 			} else {
 				move.setQueenSideCastle(true);
 				
 				if (move.getColor() == Color.white) {
-					board[2][0] = board[4][0];
-					board[3][0] = board[0][0];
-					board[4][0] = EMPTY;
-					board[0][0] = EMPTY;
+					position.set(2, 0, board[4][0]);
+					position.set(3, 0, board[0][0]);
+					position.set(4, 0, EMPTY);
+					position.set(0, 0, EMPTY);
 				} else {
-					board[2][7] = board[4][7];
-					board[3][7] = board[0][7];
-					board[4][7] = EMPTY;
-					board[0][7] = EMPTY;
+					position.set(2, 7, board[4][7]);
+					position.set(3, 7, board[0][7]);
+					position.set(4, 7, EMPTY);
+					position.set(0, 7, EMPTY);
 				}
 				
 			}
@@ -384,50 +584,49 @@ public class PGNParser {
 		} else if (move.isEndGameMarked()) {
 			//Handle situation
 		} else {
-			switch (strippedMove.length()) {
-			case MOVE_TYPE_1_LENGTH :
-				handleMoveType1(move, strippedMove, color, board);
-				
+			switch (SANLexer.type(san)) {
+			case 1 :
+				handleMoveType1(move, san, color, position);
 				break;
-			case MOVE_TYPE_2_LENGTH :
-				if (strippedMove.matches(MOVE_TYPE_2_RE)) {
-					handleMoveType2(move, strippedMove, color, board);
-				} else if (strippedMove.matches(MOVE_TYPE_5_RE)) {
-					handleMoveType5(move, strippedMove, color, board);
-				}
-				
+			case 2 :
+				handleMoveType2(move, san, color, position);
 				break;
-			case MOVE_TYPE_3_LENGTH :
-				if (strippedMove.matches(MOVE_TYPE_3_RE)) {
-					handleMoveType3(move, strippedMove, color, board);
-				} else if (strippedMove.matches(MOVE_TYPE_6_RE)) {
-					handleMoveType6(move, strippedMove, color, board);
-				}
-				
+			case 3 :
+				handleMoveType3(move, san, color, position);
 				break;
-			case MOVE_TYPE_4_LENGTH :
-				handleMoveType4(move, strippedMove, color, board);
-				
+			case 4 :
+				handleMoveType4(move, san, color, position);
+				break;
+			case 5 :
+				handleMoveType5(move, san, color, position);
+				break;
+			case 6 :
+				handleMoveType6(move, san, color, position);
 				break;
 			}
 			
 			try {
-				board[getChessATOI(move.getToSquare().charAt(0))][move.getToSquare().charAt(1) - '1'] = board[getChessATOI(move.getFromSquare().charAt(0))][move.getFromSquare().charAt(1) - '1'];
-				board[getChessATOI(move.getFromSquare().charAt(0))][move.getFromSquare().charAt(1) - '1'] = EMPTY;
+				int fromhPos = getChessATOI(move.getFromSquare().charAt(0));
+				int fromvPos = move.getFromSquare().charAt(1) - '1';
+				int tohPos = getChessATOI(move.getToSquare().charAt(0));
+				int tovPos = move.getToSquare().charAt(1) - '1';
+				
+				position.set(tohPos, tovPos, board[fromhPos][fromvPos]);
+				position.set(fromhPos, fromvPos, EMPTY);
 				
 				if (move.isEnpassantCapture()) {
-					board[getChessATOI(move.getEnpassantPieceSquare().charAt(0))][move.getEnpassantPieceSquare().charAt(1) - '1'] = EMPTY;
+					position.set(getChessATOI(move.getEnpassantPieceSquare().charAt(0)), move.getEnpassantPieceSquare().charAt(1) - '1', EMPTY);
 				}
 				
 				if (move.isPromoted()) {
-					if (move.getPromotion().equals(PGNParser.QUEEN)) {
-						board[getChessATOI(move.getToSquare().charAt(0))][move.getToSquare().charAt(1) - '1'] = (byte)(BLACK_QUEEN * color);
-					} else if (move.getPromotion().equals(PGNParser.ROOK)) {
-						board[getChessATOI(move.getToSquare().charAt(0))][move.getToSquare().charAt(1) - '1'] = (byte)(BLACK_ROOK * color);
-					} else if (move.getPromotion().equals(PGNParser.BISHOP)) {
-						board[getChessATOI(move.getToSquare().charAt(0))][move.getToSquare().charAt(1) - '1'] = (byte)(BLACK_BISHOP * color);
-					} else if (move.getPromotion().equals(PGNParser.KNIGHT)) {
-						board[getChessATOI(move.getToSquare().charAt(0))][move.getToSquare().charAt(1) - '1'] = (byte)(BLACK_KNIGHT * color);
+					if (move.getPromotion().equals(queen)) {
+						position.set(tohPos, tovPos, (byte)(BLACK_QUEEN * color));
+					} else if (move.getPromotion().equals(rook)) {
+						position.set(tohPos, tovPos, (byte)(BLACK_ROOK * color));
+					} else if (move.getPromotion().equals(bishop)) {
+						position.set(tohPos, tovPos, (byte)(BLACK_BISHOP * color));
+					} else if (move.getPromotion().equals(knight)) {
+						position.set(tohPos, tovPos, (byte)(BLACK_KNIGHT * color));
 					}
 				}
 			} catch (IndexOutOfBoundsException e) {
@@ -440,16 +639,16 @@ public class PGNParser {
 	/**
 	 * 
 	 * @param move
-	 * @param strippedMove
+	 * @param san the move descriptor from SANLexer
 	 * @param color
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException
 	 */
-	private static void handleMoveType1(PGNMove move, String strippedMove, byte color, byte[][] board) throws PGNParseException {
-		int tohPos = getChessATOI(strippedMove.charAt(0));
-		int tovPos = strippedMove.charAt(1) - '1';
+	private void handleMoveType1(PGNMove move, int san, byte color, BitboardPosition position) throws PGNParseException {
+		int tohPos = SANLexer.toFile(san);
+		int tovPos = SANLexer.toRank(san);
 		byte piece = (byte)(BLACK_PAWN * color);
-		int fromvPos = getPawnvPos(tohPos, tovPos, piece, board);
+		int fromvPos = getPawnvPos(tohPos, tovPos, piece, position.board);
 		int fromhPos = tohPos;
 		
 		if (fromvPos == - 1) {
@@ -463,72 +662,32 @@ public class PGNParser {
 	/**
 	 * 
 	 * @param move
-	 * @param strippedMove
+	 * @param san the move descriptor from SANLexer
 	 * @param color
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException
 	 */
-	private static void handleMoveType2(PGNMove move, String strippedMove, byte color, byte[][] board) throws PGNParseException {
+	private void handleMoveType2(PGNMove move, int san, byte color, BitboardPosition position) throws PGNParseException {
 		byte piece = WHITE_PAWN;
-		int tohPos = getChessATOI(strippedMove.charAt(1));
-		int tovPos = strippedMove.charAt(2) - '1';
+		int tohPos = SANLexer.toFile(san);
+		int tovPos = SANLexer.toRank(san);
 		int fromvPos = -1;
 		int fromhPos = -1;
 		
-		if (strippedMove.charAt(0) == PAWN.charAt(0)) {
+		if (SANLexer.piece(san) == BLACK_PAWN) {
 			piece = (byte)(BLACK_PAWN * color);
-			fromvPos = getPawnvPos(tohPos, tovPos, piece, board);
+			fromvPos = getPawnvPos(tohPos, tovPos, piece, position.board);
 			fromhPos = tohPos;
-		} else if (strippedMove.charAt(0) == KNIGHT.charAt(0)) {
-			piece = (byte)(BLACK_KNIGHT * color);
-			int[]  fromPos = getSingleMovePiecePos(tohPos, tovPos, piece, board, KNIGHT_SEARCH_PATH);
-			
-			if (fromPos == null) {
-				throw new PGNParseException(move.getFullMove());
-			}
-			
-			fromhPos = fromPos[0];
-			fromvPos = fromPos[1];
-		} else if (strippedMove.charAt(0) == BISHOP.charAt(0)) {
-			piece = (byte)(BLACK_BISHOP * color);
-			int[] fromPos = getMultiMovePiecePos(tohPos, tovPos, piece, board, BISHOP_SEARCH_PATH);
-			
-			if (fromPos == null) {
-				throw new PGNParseException(move.getFullMove());
-			}
-			
-			fromhPos = fromPos[0];
-			fromvPos = fromPos[1];
-		} else if (strippedMove.charAt(0) == ROOK.charAt(0)) {
-			piece = (byte)(BLACK_ROOK * color);
-			int[] fromPos = getMultiMovePiecePos(tohPos, tovPos, piece, board, ROOK_SEARCH_PATH);
-			
-			if (fromPos == null) {
-				throw new PGNParseException(move.getFullMove());
-			}
-			
-			fromhPos = fromPos[0];
-			fromvPos = fromPos[1];
-		} else if (strippedMove.charAt(0) == QUEEN.charAt(0)) {
-			piece = (byte)(BLACK_QUEEN * color);
-			int[] fromPos = getMultiMovePiecePos(tohPos, tovPos, piece, board, QUEEN_KING_SEARCH_PATH);
-			
-			if (fromPos == null) {
-				throw new PGNParseException(move.getFullMove());
-			}
-			
-			fromhPos = fromPos[0];
-			fromvPos = fromPos[1];
-		} else if (strippedMove.charAt(0) == KING.charAt(0)) {
-			piece = (byte)(BLACK_KING * color);
-			int[]  fromPos = getSingleMovePiecePos(tohPos, tovPos, piece, board, QUEEN_KING_SEARCH_PATH);
+		} else {
+			piece = (byte)(SANLexer.piece(san) * color);
+			int from = getPiecePos(tohPos, tovPos, -1, -1, piece, position);
 			
-			if (fromPos == null) {
+			if (from == -1) {
 				throw new PGNParseException(move.getFullMove());
 			}
 			
-			fromhPos = fromPos[0];
-			fromvPos = fromPos[1];
+			fromhPos = BitboardPosition.file(from);
+			fromvPos = BitboardPosition.rank(from);
 		}
 		
 		if (fromvPos == - 1 || fromhPos == -1) {
@@ -542,36 +701,25 @@ public class PGNParser {
 	/**
 	 * 
 	 * @param move
-	 * @param strippedMove
+	 * @param san the move descriptor from SANLexer
 	 * @param color
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException
 	 */
-	private static void handleMoveType3(PGNMove move, String strippedMove, byte color, byte[][] board) throws PGNParseException {
+	private void handleMoveType3(PGNMove move, int san, byte color, BitboardPosition position) throws PGNParseException {
 		byte piece = WHITE_PAWN;
-		int fromhPos = getChessATOI(strippedMove.charAt(1));
-		int tohPos = getChessATOI(strippedMove.charAt(2));
-		int tovPos = strippedMove.charAt(3) - '1';
+		int fromhPos = SANLexer.fromFile(san);
+		int tohPos = SANLexer.toFile(san);
+		int tovPos = SANLexer.toRank(san);
 		int fromvPos = -1;
 		
-		if (strippedMove.charAt(0) == PAWN.charAt(0)) {
+		if (SANLexer.piece(san) == BLACK_PAWN) {
 			piece = (byte)(BLACK_PAWN * color);
-			fromvPos = getPawnvPos(fromhPos, tovPos, piece, board);
-		} else if (strippedMove.charAt(0) == KNIGHT.charAt(0)) {
-			piece = (byte)(BLACK_KNIGHT * color);
-			fromvPos = getSingleMovePiecevPos(tohPos, tovPos, fromhPos, piece, board, KNIGHT_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == BISHOP.charAt(0)) {
-			piece = (byte)(BLACK_BISHOP * color);
-			fromvPos = getMultiMovePiecevPos(tohPos, tovPos, fromhPos, piece, board, BISHOP_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == ROOK.charAt(0)) {
-			piece = (byte)(BLACK_ROOK * color);
-			fromvPos = getMultiMovePiecevPos(tohPos, tovPos, fromhPos, piece, board, ROOK_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == QUEEN.charAt(0)) {
-			piece = (byte)(BLACK_QUEEN * color);
-			fromvPos = getMultiMovePiecevPos(tohPos, tovPos, fromhPos, piece, board, QUEEN_KING_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == KING.charAt(0)) {
-			piece = (byte)(BLACK_KING * color);
-			fromvPos = getSingleMovePiecevPos(tohPos, tovPos, fromhPos, piece, board, QUEEN_KING_SEARCH_PATH);
+			fromvPos = getPawnvPos(fromhPos, tovPos, piece, position.board);
+		} else {
+			piece = (byte)(SANLexer.piece(san) * color);
+			int from = getPiecePos(tohPos, tovPos, fromhPos, -1, piece, position);
+			fromvPos = from == -1 ? -1 : BitboardPosition.rank(from);
 		}
 		
 		if (fromvPos == - 1 || fromhPos == -1) {
@@ -585,37 +733,25 @@ public class PGNParser {
 	/**
 	 * 
 	 * @param move
-	 * @param strippedMove
+	 * @param san the move descriptor from SANLexer
 	 * @param color
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException
 	 */
-	private static void handleMoveType4(PGNMove move, String strippedMove, byte color, byte[][] board) throws PGNParseException {
-		byte piece = WHITE_PAWN;
-		int fromhPos = getChessATOI(strippedMove.charAt(1));
-		int fromvPos = strippedMove.charAt(2) - '1';
-		int tohPos = getChessATOI(strippedMove.charAt(3));
-		int tovPos = strippedMove.charAt(4) - '1';
+	private void handleMoveType4(PGNMove move, int san, byte color, BitboardPosition position) throws PGNParseException {
+		byte piece;
+		int fromhPos = SANLexer.fromFile(san);
+		int fromvPos = SANLexer.fromRank(san);
+		int tohPos = SANLexer.toFile(san);
+		int tovPos = SANLexer.toRank(san);
 		
-		if (strippedMove.charAt(0) == PAWN.charAt(0)) {
-			piece = (byte)(BLACK_PAWN * color);
-		} else if (strippedMove.charAt(0) == KNIGHT.charAt(0)) {
-			piece = (byte)(BLACK_KNIGHT * color);
-		} else if (strippedMove.charAt(0) == BISHOP.charAt(0)) {
-			piece = (byte)(BLACK_BISHOP * color);
-		} else if (strippedMove.charAt(0) == ROOK.charAt(0)) {
-			piece = (byte)(BLACK_ROOK * color);
-		} else if (strippedMove.charAt(0) == QUEEN.charAt(0)) {
-			piece = (byte)(BLACK_QUEEN * color);
-		} else if (strippedMove.charAt(0) == KING.charAt(0)) {
-			piece = (byte)(BLACK_KING * color);
-		}
+		piece = (byte)(SANLexer.piece(san) * color);
 		
 		if (fromvPos == - 1 || fromhPos == -1) {
 			throw new PGNParseException(move.getFullMove());
 		}
 		
-		if (board[fromhPos][fromvPos] != piece) {
+		if (position.board[fromhPos][fromvPos] != piece) {
 			throw new PGNParseException("Piece does not match");
 		}
 		
@@ -626,28 +762,28 @@ public class PGNParser {
 	/**
 	 * 
 	 * @param move
-	 * @param strippedMove
+	 * @param san the move descriptor from SANLexer
 	 * @param color
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException
 	 */
-	private static void handleMoveType5(PGNMove move, String strippedMove, byte color, byte[][] board) throws PGNParseException {
-		int fromhPos = getChessATOI(strippedMove.charAt(0));
-		int tohPos = getChessATOI(strippedMove.charAt(1));
-		int tovPos = strippedMove.charAt(2) - '1';
+	private void handleMoveType5(PGNMove move, int san, byte color, BitboardPosition position) throws PGNParseException {
+		int fromhPos = SANLexer.fromFile(san);
+		int tohPos = SANLexer.toFile(san);
+		int tovPos = SANLexer.toRank(san);
 		byte piece = (byte)(BLACK_PAWN * color);
-		int fromvPos = getPawnvPos(fromhPos, tovPos, piece, board);
+		int fromvPos = getPawnvPos(fromhPos, tovPos, piece, position.board);
 		
 		if (fromvPos == - 1) {
 			throw new PGNParseException(move.getFullMove());
 		}
 		
 		if (move.isCaptured()) {
-			if (board[tohPos][tovPos] == EMPTY) {
+			if (position.board[tohPos][tovPos] == EMPTY) {
 				int enPassanthPos = tohPos;
 				int enPassantvPos = tovPos - (tovPos - fromvPos);
 				
-				if (board[enPassanthPos][enPassantvPos] == (byte)(-1 * BLACK_PAWN * color)) {
+				if (position.board[enPassanthPos][enPassantvPos] == (byte)(-1 * BLACK_PAWN * color)) {
 					move.setEnpassantCapture(true);
 					move.setEnpassantPieceSquare(getChessCoords(enPassanthPos, enPassantvPos));
 				} else {
@@ -663,35 +799,24 @@ public class PGNParser {
 	/**
 	 * 
 	 * @param move
-	 * @param strippedMove
+	 * @param san the move descriptor from SANLexer
 	 * @param color
-	 * @param board
+	 * @param position
 	 * @throws PGNParseException
 	 */
-	private static void handleMoveType6(PGNMove move, String strippedMove, byte color, byte[][] board) throws PGNParseException {
+	private void handleMoveType6(PGNMove move, int san, byte color, BitboardPosition position) throws PGNParseException {
 		byte piece = WHITE_PAWN;
-		int fromvPos = strippedMove.charAt(1) - '1';
-		int tohPos = getChessATOI(strippedMove.charAt(2));
-		int tovPos = strippedMove.charAt(3) - '1';
+		int fromvPos = SANLexer.fromRank(san);
+		int tohPos = SANLexer.toFile(san);
+		int tovPos = SANLexer.toRank(san);
 		int fromhPos = -1;
 		
-		if (strippedMove.charAt(0) == PAWN.charAt(0)) {
-			throw new PGNParseException(strippedMove + " : pawn found");
-		} else if (strippedMove.charAt(0) == KNIGHT.charAt(0)) {
-			piece = (byte)(BLACK_KNIGHT * color);
-			fromhPos = getSingleMovePiecehPos(tohPos, tovPos, fromvPos, piece, board, KNIGHT_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == BISHOP.charAt(0)) {
-			piece = (byte)(BLACK_BISHOP * color);
-			fromhPos = getMultiMovePiecehPos(tohPos, tovPos, fromvPos, piece, board, BISHOP_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == ROOK.charAt(0)) {
-			piece = (byte)(BLACK_ROOK * color);
-			fromhPos = getMultiMovePiecehPos(tohPos, tovPos, fromvPos, piece, board, ROOK_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == QUEEN.charAt(0)) {
-			piece = (byte)(BLACK_QUEEN * color);
-			fromhPos = getMultiMovePiecehPos(tohPos, tovPos, fromvPos, piece, board, QUEEN_KING_SEARCH_PATH);
-		} else if (strippedMove.charAt(0) == KING.charAt(0)) {
-			piece = (byte)(BLACK_KING * color);
-			fromhPos = getSingleMovePiecehPos(tohPos, tovPos, fromvPos, piece, board, QUEEN_KING_SEARCH_PATH);
+		if (SANLexer.piece(san) == BLACK_PAWN) {
+			throw new PGNParseException(move.getMove() + " : pawn found");
+		} else {
+			piece = (byte)(SANLexer.piece(san) * color);
+			int from = getPiecePos(tohPos, tovPos, -1, fromvPos, piece, position);
+			fromhPos = from == -1 ? -1 : BitboardPosition.file(from);
 		}
 		
 		if (fromvPos == -1 || fromhPos == -1) {
@@ -753,252 +878,100 @@ public class PGNParser {
 	}
 	
 	/**
+	 * Finds the piece that moves to (hPos, vPos). The candidates are the
+	 * pieces the target square attacks back; a pinned piece is skipped, and
+	 * if several are left the first along the search path wins.
 	 * 
 	 * @param hPos
 	 * @param vPos
+	 * @param fromhPos the file of the piece, or -1 if not given
+	 * @param fromvPos the rank of the piece, or -1 if not given
 	 * @param piece
-	 * @param board
-	 * @param moveData
-	 * @return
+	 * @param position
+	 * @return the square of the piece, or -1
 	 */
-	private static int[] getSingleMovePiecePos(int hPos, int vPos, byte piece, byte[][] board, byte[][] moveData) {
-		for (int i = 0; i < moveData.length; i++) {
-			try {
-				if (board[hPos + moveData[i][0]][vPos + moveData[i][1]] == piece) {
-					if (Math.abs(piece) != BLACK_KING) {
-						if (isKingInCheckAfterMove(board, (byte)(piece / Math.abs(piece)), hPos + moveData[i][0], vPos + moveData[i][1], hPos, vPos)) {
-							continue;
-						}
-					}
-					
-					return new int[] { hPos + moveData[i][0], vPos + moveData[i][1] };
-				}
-			} catch (IndexOutOfBoundsException e) {}
-		}
+	private static int getPiecePos(int hPos, int vPos, int fromhPos, int fromvPos, byte piece, BitboardPosition position) {
+		int to = BitboardPosition.square(hPos, vPos);
+		int kind = Math.abs(piece);
+		long candidates = BitboardPosition.attacks(kind, to, position.occupied()) & position.pieces(piece);
 		
-		return null;
-	}
-	
-	/**
-	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param fromhPos
-	 * @param piece
-	 * @param board
-	 * @param moveData
-	 * @return
-	 */
-	private static int getSingleMovePiecevPos(int hPos, int vPos, int fromhPos, byte piece, byte[][] board, byte[][] moveData) {
-		for (int i = 0; i < moveData.length; i++) {
-			try {
-				if (board[hPos + moveData[i][0]][vPos + moveData[i][1]] == piece && hPos + moveData[i][0] == fromhPos) {
-					if (Math.abs(piece) != BLACK_KING) {
-						if (isKingInCheckAfterMove(board, (byte)(piece / Math.abs(piece)), fromhPos, vPos + moveData[i][1], hPos, vPos)) {
-							continue;
-						}
-					}
-					
-					return vPos + moveData[i][1];
-				}
-			} catch (IndexOutOfBoundsException e) {}
+		if (fromhPos != -1) {
+			candidates &= 0xffL << (fromhPos << 3);
 		}
 		
-		return -1;
-	}
-	
-	/**
-	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param fromhPos
-	 * @param piece
-	 * @param board
-	 * @param moveData
-	 * @return
-	 */
-	private static int getSingleMovePiecehPos(int hPos, int vPos, int fromvPos, byte piece, byte[][] board, byte[][] moveData) {
-		for (int i = 0; i < moveData.length; i++) {
-			try {
-				if (board[hPos + moveData[i][0]][vPos + moveData[i][1]] == piece && vPos + moveData[i][1] == fromvPos) {
-					if (Math.abs(piece) != BLACK_KING) {
-						if (isKingInCheckAfterMove(board, (byte)(piece / Math.abs(piece)), hPos + moveData[i][0], vPos + moveData[i][1], hPos, vPos)) {
-							continue;
-						}
-					}
-					
-					return hPos + moveData[i][0];
-				}
-			} catch (IndexOutOfBoundsException e) {}
+		if (fromvPos != -1) {
+			candidates &= 0x0101010101010101L << fromvPos;
 		}
 		
-		return -1;
-	}
-	
-	/**
-	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param piece
-	 * @param board
-	 * @param moveData
-	 * @return
-	 */
-	private static int[] getMultiMovePiecePos(int hPos, int vPos, byte piece, byte[][] board, byte[][] moveData) {
-		for (int i = 0; i < moveData.length; i++) {
-			int[] position = getMultiMovePiecePosRec(hPos, vPos, hPos, vPos, moveData[i][0], moveData[i][1], piece, board);
+		byte[][] moveData = getSearchPath(kind);
+		int found = -1;
+		int foundIndex = moveData.length;
+		
+		while (candidates != 0) {
+			int from = Long.numberOfTrailingZeros(candidates);
+			candidates &= candidates - 1;
 			
-			if (position != null) {
-				return position;
+			if (kind != BLACK_KING && position.isKingInCheckAfterMove((byte)(piece / kind), from, to)) {
+				continue;
 			}
-		}
-		
-		return null;
-	}
-	
-	/**
-	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param hAdd
-	 * @param vAdd
-	 * @param piece
-	 * @param board
-	 * @return
-	 */
-	private static int[] getMultiMovePiecePosRec(int originalhPos, int originalvPos, int hPos, int vPos, int hAdd, int vAdd, byte piece, byte[][] board) {
-		hPos += hAdd;
-		vPos += vAdd;
-		
-		try {
-			if (board[hPos][vPos] == piece) {
-				if (Math.abs(piece) != BLACK_KING) {
-					if (isKingInCheckAfterMove(board, (byte)(piece / Math.abs(piece)), hPos, vPos, originalhPos, originalvPos)) {
-						return null;
-					}
-				}
-				
-				return new int[] { hPos, vPos };
-			} else if (board[hPos][vPos] != EMPTY) {
-				return null;
+			
+			if (found == -1 && candidates == 0) {
+				return from;
 			}
-		} catch (IndexOutOfBoundsException e) {
-			return null;
-		}
-		
-		return getMultiMovePiecePosRec(originalhPos, originalvPos, hPos, vPos, hAdd, vAdd, piece, board);
-	}
-	
-	/**
-	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param fromhPos
-	 * @param piece
-	 * @param board
-	 * @param moveData
-	 * @return
-	 */
-	private static int getMultiMovePiecevPos(int hPos, int vPos, int fromhPos, byte piece, byte[][] board, byte[][] moveData) {
-		for (int i = 0; i < moveData.length; i++) {
-			int fromvPos = getMultiMovePiecevPosRec(hPos, vPos, hPos, vPos, moveData[i][0], moveData[i][1], fromhPos, piece, board);
 			
-			if (fromvPos != -1) {
-				return fromvPos;
+			int index = getSearchIndex(from, to, moveData, kind != BLACK_KNIGHT && kind != BLACK_KING);
+			
+			if (index < foundIndex) {
+				found = from;
+				foundIndex = index;
 			}
 		}
 		
-		return -1;
+		return found;
 	}
 	
 	/**
 	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param hAdd
-	 * @param vAdd
-	 * @param fromhPos
-	 * @param piece
-	 * @param board
-	 * @return
+	 * @param kind
+	 * @return the order in which the squares around a target are searched
 	 */
-	private static int getMultiMovePiecevPosRec(int originalhPos, int originalvPos, int hPos, int vPos, int hAdd, int vAdd, int fromhPos, byte piece, byte[][] board) {
-		hPos += hAdd;
-		vPos += vAdd;
-		
-		try {
-			if (board[hPos][vPos] == piece && hPos == fromhPos) {
-				if (Math.abs(piece) != BLACK_KING) {
-					if (isKingInCheckAfterMove(board, (byte)(piece / Math.abs(piece)), hPos, vPos, originalhPos, originalvPos)) {
-						return -1;
-					}
-				}
-				
-				return vPos;
-			} else if (board[hPos][vPos] != EMPTY) {
-				return -1;
-			}
-		} catch (IndexOutOfBoundsException e) {
-			return -1;
+	private static byte[][] getSearchPath(int kind) {
+		switch (kind) {
+		case BLACK_KNIGHT :
+			return KNIGHT_SEARCH_PATH;
+		case BLACK_BISHOP :
+			return BISHOP_SEARCH_PATH;
+		case BLACK_ROOK :
+			return ROOK_SEARCH_PATH;
+		default :
+			return QUEEN_KING_SEARCH_PATH;
 		}
-		
-		return getMultiMovePiecevPosRec(originalhPos, originalvPos, hPos, vPos, hAdd, vAdd, fromhPos, piece, board);
 	}
 	
 	/**
 	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param fromvPos
-	 * @param piece
-	 * @param board
+	 * @param from
+	 * @param to
 	 * @param moveData
-	 * @return
+	 * @param sliding
+	 * @return the index in moveData of the step leading from to to from
 	 */
-	private static int getMultiMovePiecehPos(int hPos, int vPos, int fromvPos, byte piece, byte[][] board, byte[][] moveData) {
-		for (int i = 0; i < moveData.length; i++) {
-			int fromhPos = getMultiMovePiecehPosRec(hPos, vPos, hPos, vPos, moveData[i][0], moveData[i][1], fromvPos, piece, board);
-
-			if (fromhPos != -1) {
-				return fromhPos;
-			}
-		}
+	private static int getSearchIndex(int from, int to, byte[][] moveData, boolean sliding) {
+		int hAdd = BitboardPosition.file(from) - BitboardPosition.file(to);
+		int vAdd = BitboardPosition.rank(from) - BitboardPosition.rank(to);
 		
-		return -1;
-	}
-	
-	/**
-	 * 
-	 * @param hPos
-	 * @param vPos
-	 * @param hAdd
-	 * @param vAdd
-	 * @param fromvPos
-	 * @param piece
-	 * @param board
-	 * @return
-	 */
-	private static int getMultiMovePiecehPosRec(int originalhPos, int originalvPos, int hPos, int vPos, int hAdd, int vAdd, int fromvPos, byte piece, byte[][] board) {
-		hPos += hAdd;
-		vPos += vAdd;
+		if (sliding) {
+			hAdd = Integer.signum(hAdd);
+			vAdd = Integer.signum(vAdd);
+		}
 		
-		try {
-			if (board[hPos][vPos] == piece && vPos == fromvPos) {
-				if (Math.abs(piece) != BLACK_KING) {
-					if (isKingInCheckAfterMove(board, (byte)(piece / Math.abs(piece)), hPos, vPos, originalhPos, originalvPos)) {
-						return -1;
-					}
-				}
-				
-				return hPos;
-			} else if (board[hPos][vPos] != EMPTY) {
-				return -1;
+		for (int i = 0; i < moveData.length; i++) {
+			if (moveData[i][0] == hAdd && moveData[i][1] == vAdd) {
+				return i;
 			}
-		} catch (IndexOutOfBoundsException e) {
-			return -1;
 		}
 		
-		return getMultiMovePiecehPosRec(originalhPos, originalvPos, hPos, vPos, hAdd, vAdd, fromvPos, piece, board);
+		return moveData.length;
 	}
 	
 	/**
@@ -1006,93 +979,14 @@ public class PGNParser {
 	 * @param move
 	 * @return
 	 */
-	private static boolean validateMove(PGNMove move) {
-		String strippedMove = move.getMove();
-		
+	private boolean validateMove(PGNMove move) {
 		if (move.isCastle()) {
 			return true;
 		} else if (move.isEndGameMarked()) {
 			return true;
-		} else if (strippedMove.length() == MOVE_TYPE_1_LENGTH) {
-			return strippedMove.matches(MOVE_TYPE_1_RE);
-		} else if (strippedMove.length() == MOVE_TYPE_2_LENGTH) {
-			return strippedMove.matches(MOVE_TYPE_2_RE) || strippedMove.matches(MOVE_TYPE_5_RE);
-		} else if (strippedMove.length() == MOVE_TYPE_3_LENGTH) {
-			return strippedMove.matches(MOVE_TYPE_3_RE) || strippedMove.matches(MOVE_TYPE_6_RE);
-		} else if (strippedMove.length() == MOVE_TYPE_4_LENGTH) {
-			return strippedMove.matches(MOVE_TYPE_4_RE);
-		}
-		
-		return false;
-	}
-	
-	private static boolean isKingInCheckAfterMove(byte[][] board, byte color, int hPos, int vPos, int tohPos, int tovPos) {
-		try {
-			byte king = (byte)(BLACK_KING * color);
-			int kinghPos = -1;
-			int kingvPos = -1;
-			
-			OUT : {
-				for (int i = 0; i < 8; i++) {
-					for (int j = 0; j < 8; j++) {
-						if (board[j][i] == king) {
-							kinghPos = j;
-							kingvPos = i;
-							break OUT;
-						}
-					}
-				}
-			}
-			
-			if (kinghPos == -1 || kingvPos == -1) {
-				return false;
-			}
-			
-			byte piece = (byte)(-1 * color * BLACK_BISHOP);
-			
-			for (int i = 0; i < BISHOP_SEARCH_PATH.length; i++) {
-				if (isKingInCheckAfterMoveRec(board, piece, kinghPos, kingvPos, hPos, vPos, tohPos, tovPos, BISHOP_SEARCH_PATH[i][0], BISHOP_SEARCH_PATH[i][1])) {
-					return true;
-				}
-			}
-			
-			piece = (byte)(-1 * color * BLACK_ROOK);
-			
-			for (int i = 0; i < ROOK_SEARCH_PATH.length; i++) {
-				if (isKingInCheckAfterMoveRec(board, piece, kinghPos, kingvPos, hPos, vPos, tohPos, tovPos, ROOK_SEARCH_PATH[i][0], ROOK_SEARCH_PATH[i][1])) {
-					return true;
-				}
-			}
-			
-			piece = (byte)(-1 * color * BLACK_QUEEN);
-			
-			for (int i = 0; i < QUEEN_KING_SEARCH_PATH.length; i++) {
-				if (isKingInCheckAfterMoveRec(board, piece, kinghPos, kingvPos, hPos, vPos, tohPos, tovPos, QUEEN_KING_SEARCH_PATH[i][0], QUEEN_KING_SEARCH_PATH[i][1])) {
-					return true;
-				}
-			}
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		return false;
-		
-	}
-	
-	private static boolean isKingInCheckAfterMoveRec(byte[][] board, byte piece, int hPos, int vPos, int skiphPos, int skipvPos, int tohPos, int tovPos, int hAdd, int vAdd) {
-		hPos += hAdd;
-		vPos += vAdd;
-		
-		if (hPos < 0 || hPos > 7 || vPos < 0 || vPos > 7 || (hPos == tohPos && vPos == tovPos)) {
-			return false;
-		}
-		
-		if (board[hPos][vPos] == EMPTY || (skiphPos == hPos && skipvPos == vPos)) {
-			return isKingInCheckAfterMoveRec(board, piece, hPos, vPos, skiphPos, skipvPos, tohPos, tovPos, hAdd, vAdd);
 		}
 		
-		return board[hPos][vPos] == piece;
+		return move.getSANDescriptor() != SANLexer.INVALID;
 	}
 	
 	/**
@@ -0,0 +1,133 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the games of a PGN source one at a time. Only the text of the game
+ * being parsed is held in memory, so arbitrarily large PGN files can be
+ * walked through with a bounded heap. Files are split into games by a
+ * {@link PGNFileScanner}, other sources line by line.
+ *
+ * @author Debasis
+ *
+ */
+public class PGNReader implements Closeable {
+
+	private BufferedReader reader;
+
+	private PGNFileScanner scanner;
+
+	private boolean force;
+
+	private PGNParser parser;
+
+	public PGNReader(File file) throws IOException {
+		this(file, false);
+	}
+
+	public PGNReader(File file, boolean force) throws IOException {
+		this(file, force, PGNParser.getDefault());
+	}
+
+	public PGNReader(File file, boolean force, PGNParser parser) throws IOException {
+		this.scanner = new PGNFileScanner(file);
+		this.force = force;
+		this.parser = parser;
+	}
+
+	public PGNReader(Reader reader, boolean force) {
+		this(reader, force, PGNParser.getDefault());
+	}
+
+	/**
+	 *
+	 * @param reader
+	 * @param force if true, games that fail to parse are reported and skipped
+	 * @param parser
+	 */
+	public PGNReader(Reader reader, boolean force, PGNParser parser) {
+		this.reader = new BufferedReader(reader);
+		this.force = force;
+		this.parser = parser;
+	}
+
+	/**
+	 *
+	 * @return the next game, or null at the end of the source
+	 * @throws IOException
+	 * @throws PGNParseException
+	 * @throws MalformedMoveException
+	 */
+	public PGNGame readGame() throws IOException, PGNParseException, MalformedMoveException {
+		String pgn;
+
+		while ((pgn = nextPGNGame()) != null) {
+			if (!force) {
+				return parser.parsePGNGame(pgn);
+			}
+
+			try {
+				return parser.parsePGNGame(pgn);
+			} catch (PGNParseException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 *
+	 * @return the text of the next game, or null
+	 * @throws IOException
+	 */
+	private String nextPGNGame() throws IOException {
+		if (scanner == null) {
+			return PGNParser.nextPGNGame(reader);
+		}
+
+		PGNSlice slice = scanner.nextSlice();
+
+		return slice == null ? null : slice.decode();
+	}
+
+	/**
+	 * Iterates over the remaining games. Closing the iterator closes this
+	 * reader.
+	 *
+	 * @return
+	 */
+	public PGNGameIterator iterator() {
+		return new PGNGameIterator(this);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (scanner != null) {
+			scanner.close();
+		} else {
+			reader.close();
+		}
+	}
+
+}
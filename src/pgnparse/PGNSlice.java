@@ -0,0 +1,92 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The bytes of one game inside a mapped PGN file. Nothing is decoded
+ * until {@link #decode()} or {@link #parse()} is called.
+ *
+ * @author Debasis
+ *
+ */
+public class PGNSlice implements GameText {
+
+	private ByteBuffer buffer;
+
+	private int position;
+
+	private long offset;
+
+	private int length;
+
+	PGNSlice(ByteBuffer buffer, int position, long offset, int length) {
+		this.buffer = buffer;
+		this.position = position;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @return the offset of the game in the file
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the length of the game in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Decodes the slice with the platform charset. Safe to call from
+	 * several threads at once.
+	 *
+	 * @return
+	 */
+	@Override
+	public String decode() {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(position + length);
+		bytes.position(position);
+
+		return Charset.defaultCharset().decode(bytes).toString();
+	}
+
+	public PGNGame parse() throws IOException, PGNParseException, MalformedMoveException {
+		return parse(PGNParser.getDefault());
+	}
+
+	/**
+	 *
+	 * @param parser
+	 * @return
+	 * @throws IOException
+	 * @throws PGNParseException
+	 * @throws MalformedMoveException
+	 */
+	public PGNGame parse(PGNParser parser) throws IOException, PGNParseException, MalformedMoveException {
+		return parser.parsePGNGame(decode());
+	}
+
+}
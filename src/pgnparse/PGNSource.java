@@ -19,10 +19,15 @@ package pgnparse;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -34,6 +39,13 @@ public class PGNSource {
 
 	private String source;
 	
+	private File file;
+	
+	// a stream that is not read yet
+	private Reader stream;
+	
+	private PGNParser parser = PGNParser.getDefault();
+	
 	public PGNSource(String pgn) {
 		if (pgn == null) {
 			throw new NullPointerException("PGN data is null");
@@ -42,16 +54,46 @@ public class PGNSource {
 		this.source = pgn;
 	}
 	
+	/**
+	 * The file is not read here; its games are streamed by
+	 * {@link #gameIterator()} and {@link #openReader(boolean)}, its text
+	 * read by {@link #getText()}.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
 	public PGNSource(File file) throws IOException {
-		this(new FileInputStream(file));
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		
+		this.file = file;
 	}
 	
 	public PGNSource(URL url) throws IOException {
 		this(url.openStream());
 	}
 	
+	/**
+	 * The stream is not read here; its games are streamed by
+	 * {@link #gameIterator()} and {@link #openReader(boolean)}, which
+	 * close it with the reader. A stream can only be read once, so after
+	 * that the source is used up, unless its text was read in full by
+	 * {@link #getText()} first.
+	 * 
+	 * @param inputStream
+	 * @throws IOException
+	 */
 	public PGNSource(InputStream inputStream) throws IOException {
-		BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
+		if (inputStream == null) {
+			throw new NullPointerException("PGN stream is null");
+		}
+		
+		this.stream = new InputStreamReader(inputStream);
+	}
+	
+	private static String readSource(Reader reader) throws IOException {
+		BufferedReader br = new BufferedReader(reader);
 		String line;
 		StringBuilder buffer = new StringBuilder();
 		
@@ -60,20 +102,169 @@ public class PGNSource {
 		}
 		
 		br.close();
-		this.source = buffer.toString();
+		return buffer.toString();
+	}
+	
+	/**
+	 * 
+	 * @param parser the parser to read the games with, e.g. one for a
+	 * localized piece alphabet
+	 */
+	public void setParser(PGNParser parser) {
+		this.parser = parser;
 	}
 	
+	public PGNParser getParser() {
+		return parser;
+	}
+	
+	/**
+	 * 
+	 * @return the PGN text of this source; a file or stream is read in
+	 * full, and the text of a stream kept
+	 * @throws IOException
+	 */
+	public String getText() throws IOException {
+		if (file != null) {
+			return readSource(new InputStreamReader(new FileInputStream(file)));
+		}
+		
+		if (source == null) {
+			source = readSource(takeStream());
+		}
+		
+		return source;
+	}
+	
+	/**
+	 * @return the stream, which can only be read once
+	 */
+	private Reader takeStream() {
+		if (stream == null) {
+			throw new IllegalStateException("The PGN stream has already been read");
+		}
+		
+		Reader reader = stream;
+		stream = null;
+		return reader;
+	}
+	
+	/**
+	 * The PGN text of a source in memory, the path of a file source; see
+	 * {@link #getText()}. A stream source that is not read in full has
+	 * neither.
+	 */
 	@Override
 	public String toString() {
-		return source;
+		if (file != null) {
+			return file.getPath();
+		}
+		
+		return source == null ? super.toString() : source;
+	}
+	
+	/**
+	 * 
+	 * @param force if true, games that fail to parse are skipped
+	 * @return a reader over the games of this source
+	 * @throws IOException
+	 */
+	public PGNReader openReader(boolean force) throws IOException {
+		if (file != null) {
+			return new PGNReader(file, force, parser);
+		}
+		
+		if (source == null) {
+			return new PGNReader(takeStream(), force, parser);
+		}
+		
+		return new PGNReader(new StringReader(source), force, parser);
+	}
+	
+	/**
+	 * Streams the games one by one instead of parsing the whole source
+	 * up front as {@link #listGames()} does. The iterator has to be closed.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public PGNGameIterator gameIterator() throws IOException {
+		return openReader(false).iterator();
+	}
+	
+	public PGNGameIterator gameIterator(boolean force) throws IOException {
+		return openReader(force).iterator();
 	}
 	
 	public List<PGNGame> listGames() throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
-		return PGNParser.parse(source);
+		return listGames(false);
 	}
 	
 	public List<PGNGame> listGames(boolean force) throws PGNParseException, IOException, NullPointerException, MalformedMoveException {
-		return PGNParser.parse(source, force);
+		if (source != null) {
+			return parser.parseGames(source, force);
+		}
+		
+		List<PGNGame> games = new LinkedList<PGNGame>();
+		PGNReader reader = openReader(force);
+		PGNGame game;
+		
+		try {
+			while ((game = reader.readGame()) != null) {
+				games.add(game);
+			}
+		} finally {
+			reader.close();
+		}
+		
+		if (games.isEmpty() && !force) {
+			throw new PGNParseException();
+		}
+		
+		return games;
+	}
+	
+	public List<PGNGame> listGamesParallel(int threads) throws PGNParseException, IOException, MalformedMoveException {
+		return listGamesParallel(threads, false);
+	}
+	
+	/**
+	 * Like {@link #listGames(boolean)}, but the games are parsed by the
+	 * given number of threads. The games are returned in source order.
+	 * 
+	 * @param threads
+	 * @param force if true, games that fail to parse are skipped
+	 * @return
+	 * @throws PGNParseException
+	 * @throws IOException
+	 * @throws MalformedMoveException
+	 */
+	public List<PGNGame> listGamesParallel(int threads, boolean force) throws PGNParseException, IOException, MalformedMoveException {
+		List<GameText> sources = new ArrayList<GameText>();
+		
+		if (file != null) {
+			// The mapping stays valid after the scanner is closed
+			PGNFileScanner scanner = new PGNFileScanner(file);
+			PGNSlice slice;
+			
+			try {
+				while ((slice = scanner.nextSlice()) != null) {
+					sources.add(slice);
+				}
+			} finally {
+				scanner.close();
+			}
+		} else {
+			for (String pgn : PGNParser.splitPGN(getText())) {
+				sources.add(new PGNText(pgn));
+			}
+		}
+		
+		if (sources.isEmpty()) {
+			throw new PGNParseException();
+		}
+		
+		return parser.parseParallel(sources, force, threads);
 	}
 	
 }
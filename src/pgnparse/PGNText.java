@@ -0,0 +1,38 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+/**
+ * The text of a game that is already a String.
+ *
+ * @author Debasis
+ *
+ */
+public class PGNText implements GameText {
+
+	private String pgn;
+
+	public PGNText(String pgn) {
+		this.pgn = pgn;
+	}
+
+	@Override
+	public String decode() {
+		return pgn;
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+/**
+ * Single pass lexer for a SAN move that has already been stripped of the
+ * capture, check and promotion marks. The move is classified into one of
+ * the six move types handled by PGNParser and packed into an int:
+ *
+ * <pre>
+ * bits  0-2   move type (1-6), 0 if the move is not valid SAN
+ * bits  3-5   piece code (1-6, as BLACK_PAWN..BLACK_KING), 0 if not given
+ * bits  6-9   from file (0-7), 15 if not given
+ * bits 10-13  from rank (0-7), 15 if not given
+ * bits 14-16  to file
+ * bits 17-19  to rank
+ * </pre>
+ *
+ * The move types are:
+ * 1 "e4", 2 "Nf3", 3 "Nbd7", 4 "Ng1f3", 5 "ed5" (pawn capture), 6 "N1d2".
+ *
+ * @author Debasis
+ *
+ */
+final class SANLexer {
+
+	static final int INVALID = 0;
+
+	static final int NONE = 15;
+
+	private SANLexer() {
+	}
+
+	/**
+	 *
+	 * @param san the stripped move
+	 * @param pieces the first characters of the pawn..king symbols
+	 * @return the move descriptor, or INVALID
+	 */
+	static int lex(CharSequence san, char[] pieces) {
+		switch (san.length()) {
+		case 2 :
+			if (isFile(san.charAt(0)) && isRank(san.charAt(1))) {
+				return pack(1, 0, NONE, NONE, san.charAt(0) - 'a', san.charAt(1) - '1');
+			}
+
+			break;
+		case 3 :
+			int piece = pieceCode(san.charAt(0), pieces);
+
+			if (piece != 0 && isFile(san.charAt(1)) && isRank(san.charAt(2))) {
+				return pack(2, piece, NONE, NONE, san.charAt(1) - 'a', san.charAt(2) - '1');
+			} else if (isFile(san.charAt(0)) && isFile(san.charAt(1)) && isRank(san.charAt(2))) {
+				return pack(5, 0, san.charAt(0) - 'a', NONE, san.charAt(1) - 'a', san.charAt(2) - '1');
+			}
+
+			break;
+		case 4 :
+			piece = pieceCode(san.charAt(0), pieces);
+
+			if (piece == 0 || !isFile(san.charAt(2)) || !isRank(san.charAt(3))) {
+				break;
+			} else if (isFile(san.charAt(1))) {
+				return pack(3, piece, san.charAt(1) - 'a', NONE, san.charAt(2) - 'a', san.charAt(3) - '1');
+			} else if (isRank(san.charAt(1))) {
+				return pack(6, piece, NONE, san.charAt(1) - '1', san.charAt(2) - 'a', san.charAt(3) - '1');
+			}
+
+			break;
+		case 5 :
+			piece = pieceCode(san.charAt(0), pieces);
+
+			if (piece != 0 && isFile(san.charAt(1)) && isRank(san.charAt(2)) && isFile(san.charAt(3)) && isRank(san.charAt(4))) {
+				return pack(4, piece, san.charAt(1) - 'a', san.charAt(2) - '1', san.charAt(3) - 'a', san.charAt(4) - '1');
+			}
+
+			break;
+		}
+
+		return INVALID;
+	}
+
+	static int type(int san) {
+		return san & 0x7;
+	}
+
+	static int piece(int san) {
+		return (san >>> 3) & 0x7;
+	}
+
+	static int fromFile(int san) {
+		return (san >>> 6) & 0xf;
+	}
+
+	static int fromRank(int san) {
+		return (san >>> 10) & 0xf;
+	}
+
+	static int toFile(int san) {
+		return (san >>> 14) & 0x7;
+	}
+
+	static int toRank(int san) {
+		return (san >>> 17) & 0x7;
+	}
+
+	private static int pack(int type, int piece, int fromFile, int fromRank, int toFile, int toRank) {
+		return type | piece << 3 | fromFile << 6 | fromRank << 10 | toFile << 14 | toRank << 17;
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @param pieces
+	 * @return the code of the first piece whose symbol starts with c, or 0
+	 */
+	private static int pieceCode(char c, char[] pieces) {
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] == c) {
+				return i + 1;
+			}
+		}
+
+		return 0;
+	}
+
+	private static boolean isFile(char c) {
+		return c >= 'a' && c <= 'h';
+	}
+
+	private static boolean isRank(char c) {
+		return c >= '1' && c <= '8';
+	}
+
+}
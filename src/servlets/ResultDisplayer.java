@@ -12,17 +12,19 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import yacql.ChessPosRetriever;
-import yacql.ChessPositionIndexer;
-import static yacql.ChessPositionIndexer.GAME_STATE_ID_LABEL;
+import yacql.PositionRecord;
 import yacql.ResultSet;
+import yacql.RetrievalResult;
 
 /**
  *
  * @author Debasis
+ * 
+ * One retriever serves all the requests of the webapp; it is opened in
+ * init() and closed in destroy(). Nothing about a request is kept in the
+ * servlet or the retriever.
  */
 public class ResultDisplayer extends HttpServlet {
 
@@ -33,21 +35,36 @@ public class ResultDisplayer extends HttpServlet {
     
     @Override
     public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        propFile = config.getInitParameter("configFile");
+        if (propFile == null)
+            throw new ServletException("Servlet Configuration file missing");
+        
         try {
-            propFile = config.getInitParameter("configFile");
-            if (propFile == null) {
-                System.err.println("Servlet Configuration file missing");
-            }
+            retriever = new ChessPosRetriever(propFile);
         }
         catch (Exception ex) {
+            throw new ServletException("Cannot open the retriever of " + propFile, ex);
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        try {
+            if (retriever != null)
+                retriever.close();
+        }
+        catch (IOException ex) {
             ex.printStackTrace();
         }
     }
     
-    private String resultSetToHTML(ScoreDoc[] rs) throws Exception {
+    private String resultSetToHTML(RetrievalResult result) throws Exception {
         StringBuffer buff = new StringBuffer();
-        IndexSearcher searcher = retriever.getSearcher();
-        String queryFen = retriever.getQuery().getFEN();
+        ScoreDoc[] rs = result.getHits();
+        String queryFen = result.getQuery().getFEN();
+        // read from the DocValues, no stored fields are loaded
+        PositionRecord[] records = result.getRecords();
         
         // the query board position
         if (false) {
@@ -59,15 +76,13 @@ public class ResultDisplayer extends HttpServlet {
         buff.append("<table border=\"1\">");
         
         for (int i = 0; i < rs.length; ++i) {
-            int docId = rs[i].doc;
-            Document d = searcher.doc(docId);
             buff.append("<tr><td>");
             buff.append("The Query Position: <br>");
             buff.append("<div id=\"qboard" + i + "\"></div></td><td align=\"center\">");
-            buff.append(d.get(ChessPositionIndexer.GAME_INFO_LABEL));
-            buff.append(" (Pos#: ").append(d.get(ChessPositionIndexer.GAME_STATE_ID_LABEL)).append(")");
+            buff.append(records[i].getInfo());
+            buff.append(" (Pos#: ").append(records[i].getPly()).append(")");
             //buff.append("<br>");
-            //buff.append(d.get(ChessPositionIndexer.GAME_FEN_LABEL));
+            //buff.append(records[i].getFEN());
             buff.append("</td><td>");
             buff.append("Position Retrieved @ Rank : ").append(i+1).append("<br>");
             buff.append("<div id=\"board").append(i).append("\"></div>");
@@ -98,8 +113,6 @@ public class ResultDisplayer extends HttpServlet {
         }
         
         for (int i = 0; i < rs.length; ++i) {
-            int docId = rs[i].doc;
-            Document d = searcher.doc(docId);
             buff.append("chessObj.loadFen('")
                 .append(queryFen)
                 .append("', ")
@@ -108,7 +121,7 @@ public class ResultDisplayer extends HttpServlet {
                 .append("');")
                 .append("\n");            
             buff.append("chessObj.loadFen('")
-                .append(d.get(ChessPositionIndexer.GAME_FEN_LABEL))
+                .append(records[i].getFEN())
                 .append("', ")
                 .append("'board")
                 .append(i)
@@ -137,6 +150,7 @@ public class ResultDisplayer extends HttpServlet {
         try {
             /* TODO output your page here. You may use following sample code. */
             String pgnQuery = request.getParameter("PgnMoveText");
+            RetrievalResult result = null;
             ScoreDoc[] resultSet = null;
         
             session = request.getSession();
@@ -146,14 +160,14 @@ public class ResultDisplayer extends HttpServlet {
             out.println("</head> <body>");
             out.println("<form name=\"relform\" action=\"RelJudgementHandler\">");
             
-            retriever = new ChessPosRetriever(propFile);
-            resultSet = retriever.retrievePGNQuery(pgnQuery);
+            result = retriever.retrievePGNQuery(pgnQuery);
+            resultSet = result.getHits();
             
             // Store the results and the query in this session
-            ResultSet rs = new ResultSet(pgnQuery, retriever.getQuery().getFEN(), resultSet);
+            ResultSet rs = new ResultSet(pgnQuery, result.getQuery().getFEN(), resultSet);
             session.setAttribute("results", rs);
             
-            String html = resultSetToHTML(resultSet);
+            String html = resultSetToHTML(result);
             
             out.println(html);
             
@@ -0,0 +1,136 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.util.BytesRef;
+import pgnparse.GameFeatureEncoder;
+import pgnparse.GraphEncoder;
+import pgnparse.PGNMove;
+
+/**
+ * Token stream over the graph encoding of a board. It yields the same
+ * tokens and payloads as running PayloadAnalyzer over PGNMove.graphEncoding(),
+ * but takes the term ids straight from the encoder: no text is built, split
+ * or parsed back into floats, and the term bytes come from the
+ * FeatureVocabulary. Reachable squares carry their weight as a payload, all
+ * other terms none.
+ *
+ * A stream can be reused for one document after the other, but not by
+ * several threads at once. Consecutive positions of a game are encoded
+ * incrementally, see GameFeatureEncoder.
+ *
+ * The features of an index that are pruned, see PrunedFeatures, are left
+ * out of the stream.
+ *
+ * @author Debasis
+ */
+public final class BoardFeatureTokenStream extends TokenStream {
+
+    // the encoded payloads of the reachable square weights, by distance
+    private static final BytesRef[] PAYLOADS = new BytesRef[9];
+
+    static {
+        for (int dist = 0; dist < PAYLOADS.length; dist++) {
+            PAYLOADS[dist] = new BytesRef(PayloadHelper.encodeFloat(GraphEncoder.weight(dist)));
+        }
+    }
+
+    private final FeatureTermAttribute termAtt = addAttribute(FeatureTermAttribute.class);
+    private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
+
+    // the terms of the current board
+    private int[] ids = new int[1024];
+    private int[] distances = new int[1024];
+    private int numTerms;
+    private int next;
+
+    private final GameFeatureEncoder encoder = new GameFeatureEncoder();
+    // for boards that are not a position of a game
+    private GraphEncoder boardEncoder;
+    private PrunedFeatures pruned;
+
+    private final GraphEncoder.TermSink sink = new GraphEncoder.TermSink() {
+        @Override
+        public void term(int id, int distance) {
+            if (pruned != null && pruned.contains(id))
+                return;
+            if (numTerms == ids.length) {
+                ids = Arrays.copyOf(ids, numTerms << 1);
+                distances = Arrays.copyOf(distances, numTerms << 1);
+            }
+            ids[numTerms] = id;
+            distances[numTerms++] = distance;
+        }
+
+        @Override
+        public void endPiece() {
+        }
+    };
+
+    /**
+     * @param pruned the features to leave out, null for none
+     * @return this stream
+     */
+    public BoardFeatureTokenStream setPruned(PrunedFeatures pruned) {
+        this.pruned = pruned;
+        return this;
+    }
+
+    /**
+     * Encodes the position before a move; its terms are returned from the
+     * next reset() on.
+     *
+     * @param move
+     * @param isDoc whether the reachable squares are encoded
+     * @return this stream
+     */
+    public BoardFeatureTokenStream setMove(PGNMove move, boolean isDoc) {
+        numTerms = 0;
+        next = 0;
+        encoder.encode(move, isDoc, sink);
+        return this;
+    }
+
+    /**
+     * Encodes a board on its own, not incrementally.
+     *
+     * @param board indexed [file][rank]
+     * @param isDoc whether the reachable squares are encoded
+     * @return this stream
+     */
+    public BoardFeatureTokenStream setBoard(byte[][] board, boolean isDoc) {
+        if (boardEncoder == null)
+            boardEncoder = new GraphEncoder();
+        numTerms = 0;
+        next = 0;
+        boardEncoder.encode(board, isDoc, sink);
+        return this;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (next == numTerms)
+            return false;
+
+        clearAttributes();
+        termAtt.setTermId(ids[next]);
+
+        if (distances[next] != GraphEncoder.NO_DISTANCE)
+            payloadAtt.setPayload(PAYLOADS[distances[next]]);
+
+        next++;
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        next = 0;
+    }
+}
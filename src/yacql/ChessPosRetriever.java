@@ -4,18 +4,31 @@
  */
 package yacql;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
-import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
@@ -23,10 +36,15 @@ import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import pgnparse.GraphEncoder;
 import pgnparse.PGNGame;
+import pgnparse.PGNGameIterator;
 import pgnparse.PGNMove;
 import pgnparse.PGNParseException;
 import pgnparse.PGNSource;
@@ -45,177 +63,475 @@ import org.apache.lucene.util.Version;
 /**
  *
  * @author dganguly
+ * 
+ * A retriever is meant to be opened once and shared: searches may run on
+ * any number of threads. The searcher comes from a SearcherManager that is
+ * refreshed every 'refresh_secs' seconds in the background, so a rebuilt
+ * or updated index is picked up without a restart. Each search holds on
+ * to one searcher from the query to the last record it reads. With
+ * 'search_threads' above 1, the segments of the index are searched in
+ * parallel on a pool shared by all searches. With 'cache_size' above 0,
+ * the results of the last that many query positions are kept until the
+ * index is reopened.
+ * 
+ * 'match_mode' picks what a query position finds: 'fuzzy' (the default)
+ * scores the graph encoding of the board, 'exact' looks up the games that
+ * reach the very same board through its 'poshash' term, and
+ * 'transpositions_first' lists those games before the fuzzy hits.
  */
 
-class ScoreComparator implements Comparator {
-
-    @Override
-    public int compare(Object t, Object t1) {
-        ScoreDoc thisScoreDoc = (ScoreDoc)t;
-        ScoreDoc thatScoreDoc = (ScoreDoc)t1;
-        return thisScoreDoc.score < thatScoreDoc.score? 1 : thisScoreDoc.score == thatScoreDoc.score? 0 : -1;
-    }    
-}
-
 public class ChessPosRetriever {
+    
+    public enum MatchMode { FUZZY, EXACT, TRANSPOSITIONS_FIRST }
 
-    IndexSearcher searcher;
+    SearcherManager searcherManager;
     Properties prop;
     int numWanted;
-    PGNMove query;
+    MatchMode matchMode;
+    private ScheduledExecutorService refresher;
+    private ExecutorService searchPool;
+    private ResultCache cache;
     
+    /**
+     * @param propFile
+     * @throws Exception if the properties or the index cannot be read;
+     * nothing is left running then
+     */
     public ChessPosRetriever(String propFile) throws Exception {
         String index_dir = null;
         prop = new Properties();
-        prop.load(new FileReader(propFile));
+        FileReader propReader = new FileReader(propFile);
+        try {
+            prop.load(propReader);
+        }
+        finally {
+            propReader.close();
+        }
         index_dir = prop.getProperty("index");
+        if (index_dir == null)
+            throw new IllegalArgumentException("No 'index' in " + propFile);
         
         try {
             File indexDir = new File(index_dir);
-            IndexReader reader = DirectoryReader.open(FSDirectory.open(indexDir));
-            searcher = new IndexSearcher(reader);
-            ///float lambda = Float.parseFloat(prop.getProperty("lambda", "0.9"));
-            ///searcher.setSimilarity(new LMJelinekMercerSimilarity(lambda));
-            searcher.setSimilarity(new BM25PayloadSimilarity());
+            int searchThreads = Integer.parseInt(prop.getProperty("search_threads", "1"));
+            if (searchThreads > 1)
+                searchPool = Executors.newFixedThreadPool(searchThreads, daemonThreads("search"));
+            
+            searcherManager = new SearcherManager(FSDirectory.open(indexDir), new SearcherFactory() {
+                @Override
+                public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+                    IndexSearcher searcher = new GameSearcher(reader, searchPool);
+                    ///float lambda = Float.parseFloat(prop.getProperty("lambda", "0.9"));
+                    ///searcher.setSimilarity(new LMJelinekMercerSimilarity(lambda));
+                    searcher.setSimilarity(new BM25PayloadSimilarity());
+                    return searcher;
+                }
+            });
             numWanted = Integer.parseInt(prop.getProperty("num_wanted", "1000"));    
+            matchMode = MatchMode.valueOf(prop.getProperty("match_mode", "fuzzy").toUpperCase());
+            
+            int cacheSize = Integer.parseInt(prop.getProperty("cache_size", "0"));
+            if (cacheSize > 0)
+                startCache(cacheSize);
+            
+            int refreshSecs = Integer.parseInt(prop.getProperty("refresh_secs", "60"));
+            if (refreshSecs > 0)
+                startRefresher(refreshSecs);
         }
         catch (Exception ex) {
-            ex.printStackTrace();
+            close();
+            throw ex;
         }
     }
     
-    public IndexSearcher getSearcher() {
-        return searcher;
+    /**
+     * Caches the results of the current reader and drops them whenever
+     * the searcher manager opens a new one.
+     */
+    private void startCache(int cacheSize) throws IOException {
+        cache = new ResultCache(cacheSize);
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+            
+            @Override
+            public void afterRefresh(boolean didRefresh) throws IOException {
+                if (didRefresh)
+                    invalidateCache();
+            }
+        });
+        invalidateCache();
+    }
+    
+    private void invalidateCache() throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            cache.invalidate(searcher.getIndexReader());
+        }
+        finally {
+            release(searcher);
+        }
     }
     
-    BooleanQuery constructQuery(String boardState) {
-        BooleanQuery q = new BooleanQuery();
-        StringTokenizer st = new StringTokenizer(boardState, " \t\r\n");
-        PayloadFunction pf = new AveragePayloadFunction();
+    /**
+     * @return the result cache, null if 'cache_size' is 0
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+    
+    private void startRefresher(int refreshSecs) {
+        refresher = Executors.newSingleThreadScheduledExecutor(daemonThreads("index-refresh"));
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    searcherManager.maybeRefresh();
+                }
+                catch (Exception ex) {
+                    // keep searching the last index that opened
+                    ex.printStackTrace();
+                }
+            }
+        }, refreshSecs, refreshSecs, TimeUnit.SECONDS);
+    }
+    
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    
+    /**
+     * @return the current searcher; it has to be handed back with release()
+     * @throws IOException 
+     */
+    public IndexSearcher acquire() throws IOException {
+        return searcherManager.acquire();
+    }
+    
+    public void release(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+    
+    /**
+     * Stops the refresh and closes the index once the searches running now
+     * are done with it.
+     * 
+     * @throws IOException 
+     */
+    public void close() throws IOException {
+        if (refresher != null)
+            refresher.shutdownNow();
+        if (searcherManager != null)
+            searcherManager.close();
+        if (searchPool != null)
+            searchPool.shutdown();
+    }
+    
+    /**
+     * @param move
+     * @return a query for the positions with the same board as the move
+     */
+    Query constructExactQuery(PGNMove move) {
+        return new TermQuery(new Term(ChessPositionIndexer.GAME_POS_HASH_LABEL,
+                ChessPositionIndexer.positionHashTerm(move)));
+    }
+    
+    // One clause per term of the query encoding of the position before
+    // the move. The terms come as vocabulary ids, so their bytes are
+    // looked up rather than tokenized out of the encoding text. The
+    // features pruned from the index have no postings and are left out.
+    BooleanQuery constructQuery(PGNMove move, final PrunedFeatures pruned) {
+        final BooleanQuery q = new BooleanQuery();
+        final PayloadFunction pf = new AveragePayloadFunction();
         
-        while (st.hasMoreTokens()) {
-            String thisToken = st.nextToken();
-            Term thisTerm = new Term(ChessPositionIndexer.GAME_POS_LABEL, thisToken);
-            q.add(new PayloadTermQuery(thisTerm, pf), BooleanClause.Occur.SHOULD);            
-        }        
+        move.graphEncoding(false, new GraphEncoder.TermSink() {
+            @Override
+            public void term(int id, int distance) {
+                if (pruned != null && pruned.contains(id))
+                    return;
+                Term thisTerm = new Term(ChessPositionIndexer.GAME_POS_LABEL, FeatureVocabulary.bytes(id));
+                q.add(new PayloadTermQuery(thisTerm, pf), BooleanClause.Occur.SHOULD);
+            }
+
+            @Override
+            public void endPiece() {
+            }
+        });
         return q;
     }
     
-    // Construct queries from the PGN query file
-    public List<Query> constructQueries() throws Exception {
+    // Read the query positions from the PGN query file
+    public List<PGNMove> constructQueries() throws Exception {
         // Create an instance of the PGN parser
         String pgnQryFile = prop.getProperty("query_file");
         PGNSource source = new PGNSource(new File(pgnQryFile));
         PGNGame game = null;
         PGNMove move = null;
-        String boardState = null;
-        List<Query> queryList = new LinkedList<Query>();
+        List<PGNMove> queryList = new LinkedList<PGNMove>();
         
-        Iterator<PGNGame> gameIterator = source.listGames().iterator();
+        PGNGameIterator gameIterator = source.gameIterator();
         
-        while (gameIterator.hasNext()) {            
-            game = gameIterator.next();
-            Iterator<PGNMove> movesIterator = game.getMovesIterator();
-            while (movesIterator.hasNext()) {
-                move = movesIterator.next();
+        try {
+            while (gameIterator.hasNext()) {            
+                game = gameIterator.next();
+                Iterator<PGNMove> movesIterator = game.getMovesIterator();
+                while (movesIterator.hasNext()) {
+                    move = movesIterator.next();
+                }
+                // add the board state resulting from the last move
+                // as a query
+                ///System.out.println(move.graphEncodingForQuery());
+                queryList.add(move);
             }
-            // add the board state resulting from the last move
-            // as a query
-            boardState = move.graphEncodingForQuery();
-            ///System.out.println(boardState);
-            queryList.add(constructQuery(boardState));
+        }
+        finally {
+            gameIterator.close();
         }
         return queryList;
     }
     
-    public ScoreDoc[] filter(ScoreDoc[] docs) throws Exception {
-        HashMap<Integer, ScoreDoc> scoreMap = new HashMap<Integer, ScoreDoc>();
-        ScoreDoc[] newDocs;
-        for (int i = 0; i < docs.length; i++) {
-            int docId = docs[i].doc;
-            Document d = searcher.doc(docId);
-            int gameId = Integer.parseInt(d.get(ChessPositionIndexer.GAME_ID_LABEL));
-            if (scoreMap.get(gameId) == null) {
-                scoreMap.put(gameId, docs[i]);
-            }
-        }
-
-        newDocs = scoreMap.values().toArray(new ScoreDoc[0]);
-        Arrays.sort(newDocs, new ScoreComparator());
-        return newDocs;
+    /**
+     * @param searcher
+     * @param query
+     * @return the best position of each of the top 'num_wanted' games
+     * @throws Exception 
+     */
+    public ScoreDoc[] search(IndexSearcher searcher, Query query) throws Exception {
+        return search(searcher, query, numWanted);
     }
     
-    public ScoreDoc[] retrievePGNQuery(String pgnQuery) throws Exception {
-        TopScoreDocCollector collector = TopScoreDocCollector.create(numWanted, true);
-        ScoreDoc[] hits = null, uniqueGameHits = null;
-        TopDocs topDocs = null;
+    private static PrunedFeatures prunedFeatures(IndexSearcher searcher) {
+        return ((GameSearcher)searcher).getPrunedFeatures();
+    }
+    
+    ScoreDoc[] search(IndexSearcher searcher, Query query, int k) throws Exception {
+        // the positions are collapsed to their games while collecting
+        return ((GameSearcher)searcher).searchGames(query, k).topDocs();
+    }
+    
+    /**
+     * Searches the position after the last move of a PGN move text.
+     * 
+     * @param pgnQuery
+     * @return the query position with the hits and their records
+     * @throws Exception 
+     */
+    public RetrievalResult retrievePGNQuery(String pgnQuery) throws Exception {
         PGNSource source = new PGNSource(pgnQuery + "\n1/2-1/2\n");
         PGNGame game = source.listGames().get(0);
         PGNMove move = null;
-        String boardState = null;
         
         Iterator<PGNMove> movesIterator = game.getMovesIterator();
         while (movesIterator.hasNext()) {
             move = movesIterator.next();
         }
         
-        boardState = move.graphEncodingForQuery();
-        query = move;
-        Query query = constructQuery(boardState);
+        RetrievalResult result = retrieve(move);
         
-        searcher.search(query, collector);
-        topDocs = collector.topDocs();
-        hits = topDocs.scoreDocs;
-
-        uniqueGameHits = filter(hits);
-
-        System.out.println("Found " + uniqueGameHits.length + " hits.");
-        for(int i = 0; i < uniqueGameHits.length; ++i) {
-            int docId = uniqueGameHits[i].doc;
-            Document d = searcher.doc(docId);
-            System.out.println((i + 1) + "\t" +
-                    d.get(ChessPositionIndexer.LUCENE_DOC_ID) + "\t" +
-                    d.get(ChessPositionIndexer.GAME_INFO_LABEL) + "\t" +
-                    d.get(ChessPositionIndexer.GAME_ID_LABEL) + "\t" +
-                    d.get(ChessPositionIndexer.GAME_STATE_ID_LABEL) + "\t" +
-                    d.get(ChessPositionIndexer.GAME_FEN_LABEL) + "\t" +
-                    uniqueGameHits[i].score);
+        printHits(result);
+        return result;
+    }
+    
+    /**
+     * @param move
+     * @return the hits of the position after the move, with their records
+     * @throws Exception 
+     */
+    public RetrievalResult retrieve(PGNMove move) throws Exception {
+        IndexSearcher searcher = acquire();
+        try {
+            return retrieve(searcher, move);
         }
-        return uniqueGameHits;
+        finally {
+            release(searcher);
+        }
+    }
+    
+    RetrievalResult retrieve(IndexSearcher searcher, PGNMove move) throws Exception {
+        IndexReader reader = searcher.getIndexReader();
+        RetrievalResult result = cache == null? null : cache.get(reader, move, numWanted);
+        if (result != null)
+            return result;
+        
+        if (matchMode == MatchMode.TRANSPOSITIONS_FIRST) {
+            result = retrieveTranspositionsFirst(searcher, move);
+        }
+        else {
+            Query query = matchMode == MatchMode.EXACT? constructExactQuery(move) : constructQuery(move, prunedFeatures(searcher));
+            // the records have to be read from the searcher that found the hits
+            ScoreDoc[] hits = search(searcher, query);
+            result = new RetrievalResult(move, hits, PositionRecord.load(reader, hits));
+        }
+        
+        if (cache != null)
+            cache.put(reader, result, numWanted);
+        return result;
     }
 
-    public PGNMove getQuery() {
-        return query;
+    /**
+     * The games that reach the board of the move come first, in game
+     * order, followed by the best fuzzy hits of the other games. The
+     * exact hits are given scores above the best fuzzy score, so that the
+     * scores still decrease down the list.
+     */
+    RetrievalResult retrieveTranspositionsFirst(IndexSearcher searcher, PGNMove move) throws Exception {
+        IndexReader reader = searcher.getIndexReader();
+        ScoreDoc[] exact = search(searcher, constructExactQuery(move));
+        PositionRecord[] exactRecords = PositionRecord.load(reader, exact);
+        
+        // as many fuzzy hits as could be games already listed
+        ScoreDoc[] fuzzy = search(searcher, constructQuery(move, prunedFeatures(searcher)), numWanted + exact.length);
+        PositionRecord[] fuzzyRecords = PositionRecord.load(reader, fuzzy);
+        
+        Set<Integer> exactGames = new HashSet<Integer>();
+        List<ScoreDoc> hits = new ArrayList<ScoreDoc>(numWanted);
+        List<PositionRecord> records = new ArrayList<PositionRecord>(numWanted);
+        float top = fuzzy.length > 0? Math.max(fuzzy[0].score, 0) : 0;
+        
+        for (int i = 0; i < exact.length; i++) {
+            exactGames.add(exactRecords[i].getGameId());
+            hits.add(new ScoreDoc(exact[i].doc, top + exact.length - i));
+            records.add(exactRecords[i]);
+        }
+        for (int i = 0; i < fuzzy.length && hits.size() < numWanted; i++) {
+            if (exactGames.contains(fuzzyRecords[i].getGameId()))
+                continue;
+            hits.add(fuzzy[i]);
+            records.add(fuzzyRecords[i]);
+        }
+        
+        return new RetrievalResult(move,
+                hits.toArray(new ScoreDoc[hits.size()]),
+                records.toArray(new PositionRecord[records.size()]));
     }
     
+    void printHits(RetrievalResult result) {
+        ScoreDoc[] hits = result.getHits();
+        PositionRecord[] records = result.getRecords();
+        
+        System.out.println("Found " + hits.length + " hits.");
+        for(int i = 0; i < hits.length; ++i) {
+            System.out.println((i + 1) + "\t" +
+                    records[i].getDocId() + "\t" +
+                    records[i].getInfo() + "\t" +
+                    records[i].getGameId() + "\t" +
+                    records[i].getPly() + "\t" +
+                    records[i].getFEN() + "\t" +
+                    hits[i].score);
+        }
+    }
+
     /* Decode a given chess position into a Lucene query and retrieve results */
     public void retrieveAll() throws Exception {
-        TopScoreDocCollector collector = TopScoreDocCollector.create(numWanted, true);
-        ScoreDoc[] hits = null, uniqueGameHits = null;
-        TopDocs topDocs = null;
         int qcount = 0;
         
-        for (Query query : constructQueries()) {
+        for (PGNMove query : constructQueries()) {
             System.out.println("Query: " + (++qcount));
             ///System.out.println(query);
-            searcher.search(query, collector);
-            topDocs = collector.topDocs();
-            hits = topDocs.scoreDocs;
+            printHits(retrieve(query));
+        }
+    }
+    
+    /**
+     * Runs the queries of the query file on 'query_threads' threads, all
+     * over the same searcher, and writes the hits in TREC run format. The
+     * query id is the number of the query in the file and the document is
+     * the docid of the position; the queries are written in the order of
+     * the file whatever order they finish in.
+     * 
+     * @param runFile
+     * @throws Exception 
+     */
+    public void retrieveBatch(String runFile) throws Exception {
+        List<PGNMove> queries = constructQueries();
+        String runName = prop.getProperty("run_name", "yacql");
+        int numThreads = Integer.parseInt(prop.getProperty("query_threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
         
-            uniqueGameHits = filter(hits);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(numThreads, 1));
+        final IndexSearcher searcher = acquire();
+        long[] latencies = new long[queries.size()];
+        long start = System.nanoTime();
+        
+        try {
+            LinkedList<Future<TimedResult>> pending = new LinkedList<Future<TimedResult>>();
+            for (final PGNMove query : queries) {
+                pending.add(pool.submit(new Callable<TimedResult>() {
+                    @Override
+                    public TimedResult call() throws Exception {
+                        long queryStart = System.nanoTime();
+                        RetrievalResult result = retrieve(searcher, query);
+                        return new TimedResult(result, System.nanoTime() - queryStart);
+                    }
+                }));
+            }
             
-            System.out.println("Found " + uniqueGameHits.length + " hits.");
-            for(int i = 0; i < uniqueGameHits.length; ++i) {
-                int docId = uniqueGameHits[i].doc;
-                Document d = searcher.doc(docId);
-                System.out.println((i + 1) + "\t" +
-                        d.get(ChessPositionIndexer.LUCENE_DOC_ID) + "\t" +
-                        d.get(ChessPositionIndexer.GAME_INFO_LABEL) + "\t" +
-                        d.get(ChessPositionIndexer.GAME_ID_LABEL) + "\t" +
-                        d.get(ChessPositionIndexer.GAME_STATE_ID_LABEL) + "\t" +
-                        d.get(ChessPositionIndexer.GAME_FEN_LABEL) + "\t" +
-                        uniqueGameHits[i].score);
-            }        
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(runFile)));
+            try {
+                for (int qid = 1; !pending.isEmpty(); qid++) {
+                    // written and dropped one at a time, in query order
+                    TimedResult timed = pending.removeFirst().get();
+                    ScoreDoc[] hits = timed.result.getHits();
+                    PositionRecord[] records = timed.result.getRecords();
+                    
+                    for (int i = 0; i < hits.length; i++) {
+                        out.println(qid + "\tQ0\t" + records[i].getDocId() + "\t" + (i + 1) + "\t" +
+                                hits[i].score + "\t" + runName);
+                    }
+                    latencies[qid - 1] = timed.nanos;
+                    System.out.println("Query " + qid + ": " + hits.length + " hits in " +
+                            millis(timed.nanos) + " ms");
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            release(searcher);
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Ran " + queries.size() + " queries on " + numThreads + " threads in " +
+                millis(elapsed) + " ms");
+        
+        if (latencies.length > 0) {
+            Arrays.sort(latencies);
+            long total = 0;
+            for (long latency : latencies)
+                total += latency;
+            System.out.println("Per query latency (ms): mean " + millis(total / latencies.length) +
+                    ", median " + millis(latencies[latencies.length / 2]) +
+                    ", 95th pct " + millis(latencies[(int)(latencies.length * 0.95)]) +
+                    ", max " + millis(latencies[latencies.length - 1]));
+        }
+        if (cache != null)
+            System.out.println("Cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+    }
+    
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+    
+    /**
+     * The result of a batch query and how long the query took.
+     */
+    static class TimedResult {
+        RetrievalResult result;
+        long nanos;
+        
+        TimedResult(RetrievalResult result, long nanos) {
+            this.result = result;
+            this.nanos = nanos;
         }
     }
     
@@ -230,7 +546,13 @@ public class ChessPosRetriever {
         
         try {
             ChessPosRetriever chessPosRetriever = new ChessPosRetriever(propFile);
-            chessPosRetriever.retrieveAll();
+            // with a run file, the queries are run as a batch
+            String runFile = chessPosRetriever.prop.getProperty("run_file");
+            if (runFile != null)
+                chessPosRetriever.retrieveBatch(runFile);
+            else
+                chessPosRetriever.retrieveAll();
+            chessPosRetriever.close();
         }
         catch (Exception ex) {
             ex.printStackTrace();
@@ -2,70 +2,362 @@ package yacql;
 
 import java.io.File;
 import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.lucene.analysis.*;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import pgnparse.*;
 
+/**
+ * Indexes every position of the games in a directory of PGN files. The
+ * files are read, parsed and indexed by an IndexPipeline, and games and
+ * positions are numbered in the order they are read in, whatever the
+ * number of threads. A position document keeps nothing in the stored
+ * fields, see PositionRecord; the Zobrist hash of its board is the
+ * 'poshash' keyword.
+ *
+ * The properties that change what is built:
+ *
+ *   update             add to an existing index, see IndexManifest
+ *   shards             build in that many shards, see ShardMerger and main()
+ *   dedup              index each distinct board once, see PositionTable
+ *   max_position_freq  leave out the frequent boards, see PositionFilter
+ *   max_df_ratio       leave out the frequent features, see PrunedFeatures
+ *
+ * A deduplicated index, or one with 'max_position_freq', is always built
+ * from scratch.
+ */
 public class ChessPositionIndexer {
     
     private Analyzer analyzer;
     Properties prop;
     int gameId;
     int luceneDocId;
+    // the step between the ids this indexer hands out
+    int idStride;
+    int numSkip;
+    boolean update;
+    boolean storePos;
+    boolean dedup;
+    // the boards of a deduplicated index, until they are added
+    private PositionTable positions;
+    // the boards at least this frequent are not indexed, 0 to skip by numskip
+    int maxPositionFreq;
+    int sketchWidth;
+    PositionFilter filter;
+    private PositionBook book;
+    float maxDfRatio;
+    int dfSample;
+    // the games the features are sampled from, until they are counted
+    private GameSample sample;
+    PrunedFeatures pruned;
+    
+    // the files of the index, and those of them seen in this run
+    private IndexManifest manifest;
+    private Set<String> seenFiles;
+    private File dataDir;
+    // the files of the collection are dealt out to the shards in turn
+    private int shard;
+    private int numShards;
+    private int numFiles;
+    
+    private final IndexPipeline pipeline;
+    
+    // the encoders keep the last position, so each thread has its own
+    private final ThreadLocal<BoardFeatureTokenStream> posStreams = new ThreadLocal<BoardFeatureTokenStream>() {
+        @Override
+        protected BoardFeatureTokenStream initialValue() {
+            return new BoardFeatureTokenStream().setPruned(pruned);
+        }
+    };
     
     public static final String LUCENE_DOC_ID = "docid";
     public static final String GAME_ID_LABEL = "id";
     public static final String GAME_INFO_LABEL = "info";
     public static final String GAME_STATE_ID_LABEL = "posid";
     public static final String GAME_POS_LABEL = "pos";
-    public static final String GAME_FEN_LABEL = "fen";
+    public static final String GAME_BOARD_LABEL = "board";
+    public static final String GAME_FILE_ID_LABEL = "fileid";
+    public static final String GAME_POS_HASH_LABEL = "poshash";
+    public static final String OCCURRENCES_LABEL = "occ";
+    public static final String GAME_DOC_LABEL = "game";
     
     public ChessPositionIndexer(String propFile) throws Exception {
+        this(loadProperties(propFile));
+    }
+    
+    public ChessPositionIndexer(Properties prop) {
         analyzer = new PayloadAnalyzer(); //WhitespaceAnalyzer(Version.LUCENE_CURRENT);
-        prop = new Properties();
-        prop.load(new FileReader(propFile));
+        this.prop = prop;
         gameId = 1;
         luceneDocId = 1;
+        numSkip = Integer.parseInt(prop.getProperty("numskip", "12"));
+        update = Boolean.parseBoolean(prop.getProperty("update", "false"));
+        storePos = Boolean.parseBoolean(prop.getProperty("store_pos", "false"));
+        dedup = Boolean.parseBoolean(prop.getProperty("dedup", "false"));
+        maxPositionFreq = Integer.parseInt(prop.getProperty("max_position_freq", "0"));
+        sketchWidth = Integer.parseInt(prop.getProperty("sketch_width", String.valueOf(1 << 22)));
+        filter = new PositionFilter(numSkip);
+        maxDfRatio = Float.parseFloat(prop.getProperty("max_df_ratio", "0"));
+        dfSample = Integer.parseInt(prop.getProperty("df_sample", "10"));
+        pipeline = new IndexPipeline(prop);
+    }
+    
+    static Properties loadProperties(String propFile) throws Exception {
+        Properties prop = new Properties();
+        prop.load(new FileReader(propFile));
+        return prop;
     }
     
     public void indexAll() {
-        String index_dir, data_dir = null;
-        data_dir = prop.getProperty("coll");
-        index_dir = prop.getProperty("index");
+        int numShards = Integer.parseInt(prop.getProperty("shards", "1"));
         
-    	IndexWriter writer = null;
         try {
-            File dataDir = new File(data_dir);
-            File indexDir = new File(index_dir);
-            
-            IndexWriterConfig iwcfg = new IndexWriterConfig(Version.LUCENE_CURRENT, analyzer);
-            iwcfg.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-
-            writer = new IndexWriter(FSDirectory.open(indexDir), iwcfg);
-            
-            indexDirectory(writer, dataDir);
-
-            writer.close();
+            if (numShards > 1) {
+                indexShards(numShards);
+                mergeShards(numShards);
+            }
+            else {
+                build(new File(prop.getProperty("index")), 0, 1);
+            }
         }
         catch (Exception e) {
             e.printStackTrace();
         }
     }
+    
+    /**
+     * Builds all shards at once, each on a thread of its own.
+     * 
+     * @param numShards
+     * @throws Exception the first error of a shard
+     */
+    public void indexShards(final int numShards) throws Exception {
+        // the boards are counted and the features pruned once for all shards
+        if (maxPositionFreq > 0)
+            filter = countPositions();
+        final PositionFilter sharedFilter = filter;
+        final PrunedFeatures sharedPruned = maxDfRatio > 0? pruneFeatures() : null;
+        ExecutorService shardPool = Executors.newFixedThreadPool(numShards);
+        List<Future<Void>> results = new ArrayList<Future<Void>>(numShards);
+        
+        for (int k = 0; k < numShards; k++) {
+            final int shard = k;
+            results.add(shardPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    ChessPositionIndexer shardIndexer = new ChessPositionIndexer(prop);
+                    shardIndexer.filter = sharedFilter;
+                    shardIndexer.pruned = sharedPruned;
+                    shardIndexer.indexShard(shard, numShards);
+                    return null;
+                }
+            }));
+        }
+        
+        try {
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                }
+                catch (ExecutionException e) {
+                    throw (Exception)e.getCause();
+                }
+            }
+        }
+        finally {
+            shardPool.shutdown();
+        }
+    }
+    
+    /**
+     * Builds one shard into its directory under 'shard_dir'.
+     * 
+     * @param shard from 0
+     * @param numShards
+     * @throws Exception 
+     */
+    public void indexShard(int shard, int numShards) throws Exception {
+        System.out.println("Indexing shard " + shard + " of " + numShards);
+        build(shardDir(shard), shard, numShards);
+    }
+    
+    private File shardDir(int shard) {
+        String shard_dir = prop.getProperty("shard_dir", prop.getProperty("index") + ".shards");
+        return new File(shard_dir, "shard" + shard);
+    }
+    
+    /**
+     * Adds the shards to a new index and deletes them, see ShardMerger.
+     * With 'force_merge' above 0 the index is merged down to that many
+     * segments.
+     * 
+     * @param numShards
+     * @throws Exception 
+     */
+    public void mergeShards(int numShards) throws Exception {
+        File[] shardDirs = new File[numShards];
+        for (int k = 0; k < numShards; k++) {
+            shardDirs[k] = shardDir(k);
+        }
+        new ShardMerger(shardDirs).merge(new File(prop.getProperty("index")),
+                Integer.parseInt(prop.getProperty("force_merge", "0")));
+    }
+    
+    /**
+     * Indexes the files of a shard of the collection. The index is
+     * committed only if every file is indexed; on a failure the writer is
+     * rolled back, so that the index stays as it was.
+     * 
+     * @param indexDir
+     * @param shard the shard, from 0
+     * @param numShards 1 to index all files
+     * @throws Exception 
+     */
+    private void build(File indexDir, int shard, int numShards) throws Exception {
+        String data_dir = prop.getProperty("coll");
+        
+        dataDir = new File(data_dir);
+        Directory dir = FSDirectory.open(indexDir);
+        this.shard = shard;
+        this.numShards = numShards;
+        if (dedup && numShards > 1)
+            throw new IllegalStateException("A deduplicated index cannot be built in shards");
+        
+        // a shard, a deduplicated index or one without the frequent boards
+        // is always built from scratch
+        manifest = update && numShards == 1 && !dedup && maxPositionFreq == 0? IndexManifest.read(dir) : null;
+        if (update && numShards > 1)
+            System.out.println("Ignoring update, shard " + shard + " is built from scratch");
+        else if (update && dedup)
+            System.out.println("Ignoring update, a deduplicated index is built from scratch");
+        else if (update && maxPositionFreq > 0)
+            System.out.println("Ignoring update, an index with max_position_freq is built from scratch");
+        else if (update && manifest == null)
+            System.out.println("No manifest in " + indexDir + ", building the index from scratch");
+        else if (update && manifest.maxPositionFreq > 0) {
+            System.out.println(indexDir + " was built with max_position_freq " + manifest.maxPositionFreq +
+                    ", building the index from scratch");
+            manifest = null;
+        }
+        
+        IndexWriterConfig iwcfg = new IndexWriterConfig(Version.LUCENE_CURRENT, analyzer);
+        if (manifest != null) {
+            // the old documents have to have the fields this code writes
+            IndexSchema.check(dir);
+            iwcfg.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            // the new documents have to leave out what the old ones do
+            pruned = PrunedFeatures.read(dir);
+            if (maxDfRatio > 0 && pruned == null)
+                System.out.println("No features are pruned from " + indexDir + ", leaving them all in");
+        }
+        else {
+            iwcfg.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            manifest = new IndexManifest();
+        }
+        gameId = manifest.nextGameId + shard;
+        luceneDocId = manifest.nextDocId + shard;
+        idStride = numShards;
+        seenFiles = new HashSet<String>();
+        
+        if (maxPositionFreq > 0 && !filter.isCounted())
+            filter = countPositions();
+        // after the count, the positions sampled are the ones indexed
+        if (maxDfRatio > 0 && pruned == null && iwcfg.getOpenMode() == IndexWriterConfig.OpenMode.CREATE)
+            pruned = pruneFeatures();
+        book = new PositionBook();
+        positions = dedup? new PositionTable(Integer.parseInt(prop.getProperty("dedup_buffer", String.valueOf(1 << 20))),
+                prop.getProperty("tmp_dir") == null? null : new File(prop.getProperty("tmp_dir"))) : null;
+        
+        IndexWriter writer = new IndexWriter(dir, iwcfg);
+        boolean success = false;
+        
+        try {
+            pipeline.start();
+            try {
+                indexDirectory(writer, dataDir);
+            }
+            finally {
+                pipeline.finish();
+            }
+            
+            Map<String, String> commitData;
+            if (positions != null) {
+                int numRuns = positions.getNumRuns();
+                System.out.println("Adding the distinct positions of " + positions.getNumOccurrences() + " occurrences" +
+                        (numRuns > 0? ", merging " + (numRuns + 1) + " sorted runs" : ""));
+                int numPositions = positions.write(writer, posStreams.get());
+                System.out.println("Added " + numPositions + " distinct positions");
+                // without a manifest, an update of a deduplicated index rebuilds it
+                commitData = new HashMap<String, String>();
+            }
+            else {
+                manifest.removeMissing(seenFiles, writer);
+                manifest.nextGameId = gameId;
+                manifest.nextDocId = luceneDocId;
+                manifest.maxPositionFreq = maxPositionFreq;
+                commitData = manifest.toCommitData();
+            }
+            IndexSchema.addTo(commitData);
+            if (pruned != null)
+                pruned.addTo(commitData);
+            writer.setCommitData(commitData);
+            writer.commit();
+            success = true;
+        }
+        finally {
+            if (success) {
+                writer.close();
+            }
+            else {
+                writer.rollback();
+                // the sorted runs of the positions go too
+                if (positions != null)
+                    positions.close();
+            }
+            positions = null;
+        }
+        
+        if (filter.isCounted())
+            System.out.println(book.size() + " positions occur " + maxPositionFreq + " times or more");
+        // an index that can be updated has no book
+        if (iwcfg.getOpenMode() == IndexWriterConfig.OpenMode.CREATE)
+            book.write(indexDir);
+    }
 	
     private void indexDirectory(IndexWriter writer, File dir) 
         throws Exception {
         File[] files = dir.listFiles();
+        // in name order, so that ids and shards do not depend on the file system
+        Arrays.sort(files);
         for (int i=0; i < files.length; i++) {
             File f = files[i];
             if (f.isDirectory()) {
@@ -77,90 +369,308 @@ public class ChessPositionIndexer {
         }
     }
 
+    /**
+     * @param f
+     * @return the id of a PGN file: its path relative to the collection
+     */
+    private String fileId(File f) {
+        return dataDir.toURI().relativize(f.toURI()).getPath();
+    }
+    
     private void indexFile(IndexWriter writer, File f) throws Exception {
         
         String name = f.getName();
         
-        if (name.charAt(0) == '.')
+        if (CollectionPass.isSkippedFile(f))
             return;
-        if (name.charAt(name.length()-1) == '~')
+        
+        if (numFiles++ % numShards != shard)
+            return;
+        
+        String fileId = fileId(f);
+        seenFiles.add(fileId);
+        
+        IndexManifest.Entry entry = manifest.get(fileId);
+        if (entry != null && entry.isUnchanged(f)) {
+            System.out.println("Skipping unchanged PGN file " + name);
             return;
+        }
         
-        System.out.println("Indexing PGN file " + name);
-        String content = null;
+        String hash = IndexManifest.hash(f);
+        if (entry != null) {
+            if (entry.hash.equals(hash)) {
+                // only touched: keep the documents, note the new time
+                System.out.println("Skipping unchanged PGN file " + name);
+                entry.lastModified = f.lastModified();
+                return;
+            }
+            
+            // Deletes only apply to the documents added before them, so the
+            // new content can be queued right after
+            System.out.println("Reindexing changed PGN file " + name);
+            writer.deleteDocuments(new Term(GAME_FILE_ID_LABEL, fileId));
+        }
+        else {
+            System.out.println("Indexing PGN file " + name);
+        }
+        entry = manifest.put(fileId, f, hash);
 
-        Document doc = null;
-        StringBuffer buff = null;
-        String fen = null;
+        // Split the file into games and hand them on in batches. The
+        // scanner only finds the game boundaries, the games are parsed
+        // by the parse threads.
+        PGNFileScanner scanner = new PGNFileScanner(f);
+        List<PGNSlice> slices = new ArrayList<PGNSlice>(pipeline.batchSize);
+        PGNSlice slice;
         
-        // Create an instance of the PGN parser
-        PGNSource source = new PGNSource(f);
-        PGNGame game = null;
-        PGNMove move = null;
+        try {
+            while ((slice = scanner.nextSlice()) != null) {
+                slices.add(slice);
+                if (slices.size() == pipeline.batchSize) {
+                    pipeline.submit(new Batch(writer, fileId, entry, slices));
+                    slices = new ArrayList<PGNSlice>(pipeline.batchSize);
+                }
+            }
+        }
+        finally {
+            // the mapping of the slices stays valid after the scanner is closed
+            scanner.close();
+        }
         
-        Iterator<PGNGame> gameIterator = source.listGames().iterator();
-        int gameCount = 1;
-        int numSkip = Integer.parseInt(prop.getProperty("numskip", "12"));
+        if (!slices.isEmpty())
+            pipeline.submit(new Batch(writer, fileId, entry, slices));
+    }
+    
+    /**
+     * The first pass of a build with 'max_position_freq'. The games the
+     * features are sampled from are drawn on the way.
+     * 
+     * @return the filter of the counted boards
+     * @throws Exception 
+     */
+    private PositionFilter countPositions() throws Exception {
+        boolean needsSample = maxDfRatio > 0 && pruned == null && prop.getProperty("df_index") == null;
+        if (needsSample)
+            sample = new GameSample(dfSample);
+        return PositionFilter.count(new File(prop.getProperty("coll")), pipeline, sketchWidth, maxPositionFreq, sample);
+    }
+    
+    /**
+     * Finds the features that occur in more than 'max_df_ratio' of the
+     * positions, either in the index at 'df_index' or in the indexed
+     * positions of a random sample of one in 'df_sample' games of the
+     * collection. Only the sampled games are parsed; the sample is drawn
+     * while the boards are counted, or else by a pass that only scans the
+     * files. With 'max_position_freq' the boards have to be counted first.
+     * 
+     * @return the features to prune
+     * @throws Exception 
+     */
+    PrunedFeatures pruneFeatures() throws Exception {
+        PrunedFeatures features;
+        String dfIndex = prop.getProperty("df_index");
         
-        while (gameIterator.hasNext()) {
-            
-            game = gameIterator.next();
-             
-            // For now store the player names and result as
-            // meta-data. We are not going to search on the metadata
-            buff = new StringBuffer();
-            buff.append(game.getTag("White"));
-            buff.append(":");
-            buff.append(game.getTag("Black"));
-            buff.append(":");
-            buff.append(game.getTag("Result"));
-                        
-            Iterator<PGNMove> movesIterator = game.getMovesIterator();
-            int num = -1;
-            numSkip = numSkip - 1;
+        if (dfIndex != null) {
+            System.out.println("Reading the document frequencies of " + dfIndex);
+            DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(dfIndex)));
+            try {
+                features = PrunedFeatures.fromIndex(reader, maxDfRatio);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        else {
+            if (sample == null) {
+                System.out.println("Drawing one in " + dfSample + " games of the collection");
+                sample = new GameSample(dfSample);
+                new CollectionPass(pipeline) {
+                    @Override
+                    boolean parses() {
+                        return false;
+                    }
+                    
+                    @Override
+                    void count(List<PGNGame> games) {
+                    }
+                }.run(new File(prop.getProperty("coll")), sample);
+            }
+            System.out.println("Sampling the features of " + sample.getGames().size() + " games");
+            features = PrunedFeatures.fromSample(sample.getGames(), filter, pipeline, maxDfRatio);
+            // the mapped files can go
+            sample = null;
+        }
+        
+        System.out.println(features.size() + " features occur in more than " + maxDfRatio + " of the positions");
+        return features;
+    }
+    
+    /**
+     * For now store the player names and result as meta-data. We are not
+     * going to search on the metadata.
+     */
+    static String gameInfo(PGNGame game) {
+        StringBuilder buff = new StringBuilder();
+        buff.append(game.getTag("White"));
+        buff.append(":");
+        buff.append(game.getTag("Black"));
+        buff.append(":");
+        buff.append(game.getTag("Result"));
+        return buff.toString();
+    }
+    
+    /**
+     * @param move
+     * @return the 'poshash' term of the board of the move: its Zobrist
+     * hash as 16 hex digits
+     */
+    public static String positionHashTerm(PGNMove move) {
+        return positionHashTerm(move.getPositionHash());
+    }
+    
+    static String positionHashTerm(long hash) {
+        String hex = Long.toHexString(hash);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+    
+    /**
+     * Builds the document of the position before a move.
+     * 
+     * @param docId
+     * @param gameId
+     * @param num the ply of the position in the game
+     * @param info the game info, as UTF-8
+     * @param fileId the id of the PGN file of the game
+     * @param move
+     * @param posStream the token stream the position is encoded into; it
+     * must not be reused before the document is added
+     * @return 
+     */
+    Document buildDocument(int docId, int gameId, int num, BytesRef info, String fileId, PGNMove move, BoardFeatureTokenStream posStream) {
+        Document doc = new Document();
+        
+        doc.add(new NumericDocValuesField(LUCENE_DOC_ID, docId));
+        doc.add(new NumericDocValuesField(GAME_ID_LABEL, gameId));
+        doc.add(new NumericDocValuesField(GAME_STATE_ID_LABEL, num));
+        doc.add(new SortedDocValuesField(GAME_INFO_LABEL, info));
+        doc.add(new BinaryDocValuesField(GAME_BOARD_LABEL, new BytesRef(move.getPackedBoard())));
+        doc.add(new StringField(GAME_FILE_ID_LABEL, fileId, Field.Store.NO));
+        doc.add(new StringField(GAME_POS_HASH_LABEL, positionHashTerm(move), Field.Store.NO));
+        // the terms and payloads come straight from the board, the
+        // analyzer is not involved
+        doc.add(new TextField(GAME_POS_LABEL, posStream.setMove(move, true)));
+        if (storePos)
+            doc.add(new StoredField(GAME_POS_LABEL, move.graphEncoding()));
+        
+        return doc;
+    }
+    
+    /**
+     * Builds the document of a game of a deduplicated index; its positions
+     * refer to it by the game id.
+     */
+    Document buildGameDocument(int gameId, BytesRef info, String fileId) {
+        Document doc = new Document();
+        
+        doc.add(new StringField(GAME_DOC_LABEL, String.valueOf(gameId), Field.Store.NO));
+        doc.add(new NumericDocValuesField(GAME_ID_LABEL, gameId));
+        doc.add(new SortedDocValuesField(GAME_INFO_LABEL, info));
+        doc.add(new StringField(GAME_FILE_ID_LABEL, fileId, Field.Store.NO));
+        
+        return doc;
+    }
+    
+    /**
+     * The games of a file that are parsed and indexed together.
+     */
+    private class Batch extends IndexPipeline.Task {
+        
+        final IndexWriter writer;
+        final String fileId;
+        final IndexManifest.Entry entry;
+        final List<PGNSlice> slices;
+        List<PGNGame> games;
+        
+        // assigned by the sequencer
+        int firstGameId;
+        int[] firstDocIds;
+        
+        Batch(IndexWriter writer, String fileId, IndexManifest.Entry entry, List<PGNSlice> slices) {
+            this.writer = writer;
+            this.fileId = fileId;
+            this.entry = entry;
+            this.slices = slices;
+        }
+        
+        @Override
+        void parse() throws Exception {
+            games = new ArrayList<PGNGame>(slices.size());
+            for (PGNSlice slice : slices) {
+                games.add(slice.parse());
+            }
+        }
+        
+        /**
+         * Gives the games and positions the next ids, so that the ids do
+         * not depend on which thread finishes first.
+         */
+        @Override
+        void sequence() {
+            firstGameId = gameId;
+            if (entry.firstGameId == 0 && !games.isEmpty())
+                entry.firstGameId = gameId;
+            entry.lastGameId = gameId + (games.size() - 1) * idStride;
+            firstDocIds = new int[games.size()];
+            for (int i = 0; i < games.size(); i++) {
+                firstDocIds[i] = luceneDocId;
+                luceneDocId += filter.numIndexedPositions(games.get(i)) * idStride;
+                gameId += idStride;
+            }
+        }
+        
+        @Override
+        void index() throws Exception {
+            BoardFeatureTokenStream posStream = posStreams.get();
             
-            while (movesIterator.hasNext()) {
-                move = movesIterator.next();
-                ///System.out.println(move.getMove());
-                ///move.printBoard();
+            for (int i = 0; i < games.size(); i++) {
+                PGNGame game = games.get(i);
+                BytesRef info = new BytesRef(gameInfo(game));
+                Iterator<PGNMove> movesIterator = game.getMovesIterator();
+                int docId = firstDocIds[i];
+                int thisGameId = firstGameId + i * idStride;
                 
-                fen = move.getFEN();
-                ///System.out.println(fen);
+                if (positions != null)
+                    writer.addDocument(buildGameDocument(thisGameId, info, fileId));
                 
-                num++;
-                
-                // Do not index the initial 'numskip' board positions
-                // because these will amount to very large inverted lists.
-                // A reasonable value of 'numskip' is higher than 12.
-                if ( (num>>1) < numSkip ) {
-                    ///System.out.println("Ignoring move: " + (num>>1) + "." + num%2);
-                    continue;
+                for (int num = 0; movesIterator.hasNext(); num++) {
+                    PGNMove move = movesIterator.next();
+                    if (move.isEndGameMarked())
+                        break;
+                    if (!filter.isIndexed(num, move)) {
+                        if (filter.isCounted())
+                            book.add(move, filter.estimate(move));
+                        continue;
+                    }
+                    
+                    // a deduplicated position keeps the docid it would have had
+                    if (positions != null)
+                        positions.add(move, docId, thisGameId, num);
+                    else
+                        writer.addDocument(buildDocument(docId, thisGameId, num, info, fileId, move, posStream));
+                    docId += idStride;
                 }
-                
-                if (move.isEndGameMarked())
-                    break;                
-                
-                doc = new Document();
-                content = move.graphEncoding();
-                
-                ///System.out.println("content:");
-                ///System.out.println(content);
-                
-                doc.add(new Field(LUCENE_DOC_ID, String.valueOf(luceneDocId++), Field.Store.YES, Field.Index.NOT_ANALYZED));
-                doc.add(new Field(GAME_ID_LABEL, String.valueOf(gameId), Field.Store.YES, Field.Index.NOT_ANALYZED));
-                doc.add(new Field(GAME_STATE_ID_LABEL, String.valueOf(num), Field.Store.YES, Field.Index.NOT_ANALYZED));
-                doc.add(new Field(GAME_INFO_LABEL, buff.toString(), Field.Store.YES, Field.Index.NOT_ANALYZED));
-                doc.add(new Field(GAME_FEN_LABEL, fen, Field.Store.YES, Field.Index.NOT_ANALYZED));
-                doc.add(new Field(GAME_POS_LABEL, content, Field.Store.YES, Field.Index.ANALYZED));
-                
-		writer.addDocument(doc);
-		///System.out.println("Added move " + (num>>1) + "." + num%2 + "  of game " + gameCount + " to index");
             }
-            gameCount++;
-            gameId++;
+            // the games are not needed any more
+            games = null;
         }
     }
     
+    /**
+     * Usage: ChessPositionIndexer [propFile [shard k n | merge n]]
+     * 
+     * Without a mode the whole collection is indexed. 'shard k n' builds
+     * shard k (from 0) of n, 'merge n' adds n shards built that way to the
+     * index, so that shards can be built by separate processes.
+     */
     public static void main(String[] args) {
         String propFile = "web/init.properties";
         if (args.length > 0) {
@@ -169,7 +679,15 @@ public class ChessPositionIndexer {
         
         try {
             ChessPositionIndexer chessPosIndexer = new ChessPositionIndexer(propFile);
-            chessPosIndexer.indexAll();
+            if (args.length > 3 && args[1].equals("shard")) {
+                chessPosIndexer.indexShard(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            }
+            else if (args.length > 2 && args[1].equals("merge")) {
+                chessPosIndexer.mergeShards(Integer.parseInt(args[2]));
+            }
+            else {
+                chessPosIndexer.indexAll();
+            }
         }
         catch (Exception ex) {
             ex.printStackTrace();
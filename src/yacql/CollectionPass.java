@@ -0,0 +1,135 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import pgnparse.PGNFileScanner;
+import pgnparse.PGNGame;
+import pgnparse.PGNSlice;
+
+/**
+ * A pass over the games of the whole collection before it is indexed, or
+ * over a sample of them. The batches of games are parsed and counted on
+ * the parse threads of the pipeline.
+ *
+ * @author Debasis
+ */
+abstract class CollectionPass {
+
+    private final IndexPipeline pipeline;
+    // draws its games as the files are scanned, if set
+    private GameSample sample;
+
+    CollectionPass(IndexPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Called by several threads at once.
+     *
+     * @param games
+     */
+    abstract void count(List<PGNGame> games) throws Exception;
+
+    /**
+     * @return false if the files are only scanned for the sample
+     */
+    boolean parses() {
+        return true;
+    }
+
+    /**
+     * @param coll the directory of PGN files
+     * @param sample draws its games from the collection, null for none
+     */
+    void run(File coll, GameSample sample) throws Exception {
+        this.sample = sample;
+        pipeline.start();
+        try {
+            countDirectory(coll);
+        }
+        finally {
+            pipeline.finish();
+        }
+    }
+
+    /**
+     * Counts only the given games.
+     */
+    void run(List<PGNSlice> games) throws Exception {
+        int batchSize = pipeline.batchSize;
+        pipeline.start();
+        try {
+            for (int i = 0; i < games.size(); i += batchSize) {
+                submit(new ArrayList<PGNSlice>(games.subList(i, Math.min(i + batchSize, games.size()))));
+            }
+        }
+        finally {
+            pipeline.finish();
+        }
+    }
+
+    /**
+     * @param f
+     * @return whether the file is a hidden or backup file
+     */
+    static boolean isSkippedFile(File f) {
+        String name = f.getName();
+        return name.charAt(0) == '.' || name.charAt(name.length()-1) == '~';
+    }
+
+    private void countDirectory(File dir) throws Exception {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory())
+                countDirectory(f);
+            else if (!isSkippedFile(f))
+                countFile(f);
+        }
+    }
+
+    private void countFile(File f) throws Exception {
+        PGNFileScanner scanner = new PGNFileScanner(f);
+        List<PGNSlice> slices = new ArrayList<PGNSlice>(pipeline.batchSize);
+        PGNSlice slice;
+
+        try {
+            while ((slice = scanner.nextSlice()) != null) {
+                if (sample != null)
+                    sample.offer(slice);
+                if (!parses())
+                    continue;
+                slices.add(slice);
+                if (slices.size() == pipeline.batchSize) {
+                    submit(slices);
+                    slices = new ArrayList<PGNSlice>(pipeline.batchSize);
+                }
+            }
+        }
+        finally {
+            scanner.close();
+        }
+
+        if (!slices.isEmpty())
+            submit(slices);
+    }
+
+    private void submit(final List<PGNSlice> slices) throws Exception {
+        pipeline.submit(new IndexPipeline.Task() {
+            @Override
+            void parse() throws Exception {
+                List<PGNGame> games = new ArrayList<PGNGame>(slices.size());
+                for (PGNSlice slice : slices) {
+                    games.add(slice.parse());
+                }
+                count(games);
+            }
+        });
+    }
+}
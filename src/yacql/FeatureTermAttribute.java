@@ -0,0 +1,23 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+
+/**
+ * A term given by its FeatureVocabulary id. The indexer gets the term
+ * bytes from the vocabulary instead of encoding characters.
+ *
+ * @author Debasis
+ */
+public interface FeatureTermAttribute extends TermToBytesRefAttribute {
+
+    void setTermId(int id);
+
+    /**
+     * @return the id of the term, or -1 if none is set
+     */
+    int getTermId();
+}
@@ -0,0 +1,83 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.AttributeReflector;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Default implementation of FeatureTermAttribute, found by the attribute
+ * factory by its name. TermToBytesRefAttribute is listed again because the
+ * attribute source only registers the interfaces a class names itself.
+ *
+ * @author Debasis
+ */
+public final class FeatureTermAttributeImpl extends AttributeImpl implements FeatureTermAttribute, TermToBytesRefAttribute, Cloneable {
+
+    private int id = -1;
+
+    // the indexer holds on to this instance, so the bytes are copied in
+    private BytesRef bytes = new BytesRef(8);
+
+    @Override
+    public void setTermId(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public int getTermId() {
+        return id;
+    }
+
+    @Override
+    public int fillBytesRef() {
+        if (id < 0) {
+            bytes.length = 0;
+            return 0;
+        }
+        bytes.copyBytes(FeatureVocabulary.bytes(id));
+        return FeatureVocabulary.hash(id);
+    }
+
+    @Override
+    public BytesRef getBytesRef() {
+        return bytes;
+    }
+
+    @Override
+    public void clear() {
+        id = -1;
+    }
+
+    @Override
+    public void copyTo(AttributeImpl target) {
+        ((FeatureTermAttribute)target).setTermId(id);
+    }
+
+    @Override
+    public FeatureTermAttributeImpl clone() {
+        FeatureTermAttributeImpl t = (FeatureTermAttributeImpl)super.clone();
+        t.bytes = BytesRef.deepCopyOf(bytes);
+        return t;
+    }
+
+    @Override
+    public void reflectWith(AttributeReflector reflector) {
+        reflector.reflect(FeatureTermAttribute.class, "id", id);
+        reflector.reflect(TermToBytesRefAttribute.class, "bytes", id < 0 ? null : FeatureVocabulary.term(id));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FeatureTermAttributeImpl && ((FeatureTermAttributeImpl)other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.UnicodeUtil;
+
+/**
+ * The fixed set of terms a board can be encoded into, each with a dense
+ * int id. A piece is one of the 12 colored pieces, a square one of 64:
+ *
+ *   ids 0 - 767      piece on square, e.g. "Nc3", used both for the piece
+ *                    itself and for the squares it reaches
+ *   ids 768 - 28415  piece, relation marker, target piece on square,
+ *                    e.g. "N>pd5" ('>' attack, '<' defense, '=' ray attack)
+ *
+ * The text and UTF-8 bytes of every term are built once when the class is
+ * loaded, so encoders, the token stream and the query builder never have
+ * to build a term.
+ *
+ * @author Debasis
+ */
+public final class FeatureVocabulary {
+
+    public static final int ATTACK = 0;
+    public static final int DEFENSE = 1;
+    public static final int RAY_ATTACK = 2;
+
+    static final char[] MARKERS = { '>', '<', '=' };
+
+    // piece indexes 0-5 are white P..K, 6-11 black p..k
+    static final char[] PIECES = { 'P', 'N', 'B', 'R', 'Q', 'K', 'p', 'n', 'b', 'r', 'q', 'k' };
+
+    public static final int PIECE_SQUARE_TERMS = PIECES.length * 64;
+    public static final int SIZE = PIECE_SQUARE_TERMS + PIECES.length * MARKERS.length * PIECES.length * 64;
+
+    private static final char[][] CHARS = new char[SIZE][];
+    private static final BytesRef[] BYTES = new BytesRef[SIZE];
+    private static final int[] HASHES = new int[SIZE];
+
+    static {
+        for (int piece = 0; piece < PIECES.length; piece++) {
+            for (int sq = 0; sq < 64; sq++) {
+                add(piece * 64 + sq, new char[] { PIECES[piece], file(sq), rank(sq) });
+
+                for (int marker = 0; marker < MARKERS.length; marker++) {
+                    for (int target = 0; target < PIECES.length; target++) {
+                        add(relationId(piece, marker, target, sq),
+                            new char[] { PIECES[piece], MARKERS[marker], PIECES[target], file(sq), rank(sq) });
+                    }
+                }
+            }
+        }
+    }
+
+    private FeatureVocabulary() {
+    }
+
+    private static void add(int id, char[] term) {
+        CHARS[id] = term;
+        BYTES[id] = new BytesRef(term.length);
+        // the same hash the indexer gets from a CharTermAttribute
+        HASHES[id] = UnicodeUtil.UTF16toUTF8WithHash(term, 0, term.length, BYTES[id]);
+    }
+
+    private static char file(int sq) {
+        return (char)('a' + (sq >>> 3));
+    }
+
+    private static char rank(int sq) {
+        return (char)('1' + (sq & 7));
+    }
+
+    private static int pieceIndex(byte piece) {
+        return piece < 0 ? -piece - 1 : piece + 5;
+    }
+
+    private static int relationId(int piece, int marker, int target, int sq) {
+        return PIECE_SQUARE_TERMS + ((piece * MARKERS.length + marker) * PIECES.length + target) * 64 + sq;
+    }
+
+    /**
+     * @param piece a signed piece code, negative for white
+     * @param sq file * 8 + rank
+     * @return the id of the piece on the square
+     */
+    public static int pieceSquare(byte piece, int sq) {
+        return pieceIndex(piece) * 64 + sq;
+    }
+
+    /**
+     * @param piece a signed piece code, negative for white
+     * @param marker ATTACK, DEFENSE or RAY_ATTACK
+     * @param target the signed code of the piece on the target square
+     * @param sq the target square, file * 8 + rank
+     * @return the id of the relation
+     */
+    public static int relation(byte piece, int marker, byte target, int sq) {
+        return relationId(pieceIndex(piece), marker, pieceIndex(target), sq);
+    }
+
+    /**
+     * @param id
+     * @return the term text; the array must not be modified
+     */
+    public static char[] chars(int id) {
+        return CHARS[id];
+    }
+
+    public static String term(int id) {
+        return new String(CHARS[id]);
+    }
+
+    /**
+     * @param term
+     * @return the id of the term, -1 if it is not one of the vocabulary
+     */
+    public static int id(String term) {
+        int length = term.length();
+        if (length != 3 && length != 5)
+            return -1;
+
+        int piece = new String(PIECES).indexOf(term.charAt(0));
+        int file = term.charAt(length - 2) - 'a';
+        int rank = term.charAt(length - 1) - '1';
+        if (piece < 0 || file < 0 || file > 7 || rank < 0 || rank > 7)
+            return -1;
+        int sq = file << 3 | rank;
+
+        if (length == 3)
+            return piece * 64 + sq;
+
+        int marker = new String(MARKERS).indexOf(term.charAt(1));
+        int target = new String(PIECES).indexOf(term.charAt(2));
+        if (marker < 0 || target < 0)
+            return -1;
+        return relationId(piece, marker, target, sq);
+    }
+
+    /**
+     * @param id
+     * @return the UTF-8 bytes of the term; they must not be modified
+     */
+    public static BytesRef bytes(int id) {
+        return BYTES[id];
+    }
+
+    /**
+     * @param id
+     * @return the hash TermToBytesRefAttribute.fillBytesRef() returns for the term
+     */
+    public static int hash(int id) {
+        return HASHES[id];
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Collects the best scoring position of each of the top k games. The game
+ * id of a hit is read from the numeric DocValues of its segment and looked
+ * up in an open addressing int to int map, which points to the slot of the
+ * game in an indexed min heap of k slots. A hit of a game in the heap
+ * replaces the position of the game if it scores higher; a hit of another
+ * game goes in when the heap is not full yet or it beats the worst game,
+ * which then drops out. Nothing is allocated per hit.
+ *
+ * Of two positions with the same score, the one with the lower doc wins,
+ * as with TopScoreDocCollector. Collectors that saw different segments of
+ * the same reader can be merged.
+ *
+ * In a deduplicated index a position document stands for every game its
+ * board occurs in, so a hit is offered for each game of its occurrence
+ * list. The list is not read for a hit that cannot make it into the heap.
+ *
+ * @author Debasis
+ */
+public class GameCollapseCollector extends Collector {
+
+    /**
+     * A hit of the collector: the best position of a game.
+     */
+    public static class GameScoreDoc extends ScoreDoc {
+        public int game;
+
+        public GameScoreDoc(int doc, float score, int game) {
+            super(doc, score);
+            this.game = game;
+        }
+    }
+
+    private final int k;
+
+    // per slot: the game, its best score and doc
+    private final int[] games;
+    private final float[] scores;
+    private final int[] docs;
+
+    // the min heap of slots, worst game first, and the heap index of each slot
+    private final int[] heap;
+    private final int[] heapIndex;
+    private int size;
+
+    // game id -> slot, linear probing
+    private final int[] keys;
+    private final int[] values;
+    private final boolean[] used;
+    private final int mask;
+
+    private Scorer scorer;
+    private NumericDocValues gameIds;
+    private BinaryDocValues occurrences;
+    private final BytesRef bytes = new BytesRef();
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+    private int docBase;
+    private int totalHits;
+
+    /**
+     * @param k the number of games wanted
+     */
+    public GameCollapseCollector(int k) {
+        this.k = k;
+        games = new int[k];
+        scores = new float[k];
+        docs = new int[k];
+        heap = new int[k];
+        heapIndex = new int[k];
+
+        // at most half full
+        int capacity = Integer.highestOneBit(Math.max(k, 1) * 4 - 1);
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        gameIds = context.reader().getNumericDocValues(ChessPositionIndexer.GAME_ID_LABEL);
+        if (gameIds == null)
+            gameIds = NumericDocValues.EMPTY;
+        occurrences = context.reader().getBinaryDocValues(ChessPositionIndexer.OCCURRENCES_LABEL);
+        docBase = context.docBase;
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        // ties are broken on the doc, so the order does not matter
+        return true;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        totalHits++;
+        if (occurrences == null) {
+            offer((int)gameIds.get(doc), scorer.score(), doc + docBase);
+            return;
+        }
+
+        float score = scorer.score();
+        int topDoc = doc + docBase;
+        // none of the games would get in, or improve on its position
+        if (k == 0 || size == k && !isBetter(score, topDoc, scores[heap[0]], docs[heap[0]]))
+            return;
+
+        occurrences.get(doc, bytes);
+        in.reset(bytes.bytes, bytes.offset, bytes.length);
+        int game = 0;
+        while (!in.eof()) {
+            // docid and ply deltas around the game id delta, see PositionTable
+            in.readVInt();
+            game += in.readVInt();
+            in.readVInt();
+            offer(game, score, topDoc);
+        }
+    }
+
+    /**
+     * Adds the best positions of the games of another collector. The
+     * collectors must have seen different segments: a game in the top k
+     * overall is in the top k of the segments its best position is in.
+     *
+     * @param other
+     */
+    public void merge(GameCollapseCollector other) {
+        totalHits += other.totalHits;
+        for (int slot = 0; slot < other.size; slot++) {
+            offer(other.games[slot], other.scores[slot], other.docs[slot]);
+        }
+    }
+
+    private void offer(int game, float score, int doc) {
+        if (k == 0)
+            return;
+
+        int slot = get(game);
+
+        if (slot >= 0) {
+            if (isBetter(score, doc, scores[slot], docs[slot])) {
+                scores[slot] = score;
+                docs[slot] = doc;
+                siftDown(heapIndex[slot]);
+            }
+            return;
+        }
+
+        if (size < k) {
+            slot = size++;
+            heap[slot] = slot;
+            heapIndex[slot] = slot;
+            set(slot, game, score, doc);
+            siftUp(slot);
+        }
+        else if (isBetter(score, doc, scores[heap[0]], docs[heap[0]])) {
+            // the worst game drops out
+            slot = heap[0];
+            remove(games[slot]);
+            set(slot, game, score, doc);
+            siftDown(0);
+        }
+    }
+
+    private void set(int slot, int game, float score, int doc) {
+        games[slot] = game;
+        scores[slot] = score;
+        docs[slot] = doc;
+        put(game, slot);
+    }
+
+    /**
+     * @return the number of hits collected, before collapsing
+     */
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * @return the number of games collected, at most k
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the best position of each of the top games, best game first;
+     * the hits are GameScoreDocs
+     */
+    public ScoreDoc[] topDocs() {
+        ScoreDoc[] topDocs = new ScoreDoc[size];
+        for (int slot = 0; slot < size; slot++) {
+            topDocs[slot] = new GameScoreDoc(docs[slot], scores[slot], games[slot]);
+        }
+
+        Arrays.sort(topDocs, new Comparator<ScoreDoc>() {
+            @Override
+            public int compare(ScoreDoc a, ScoreDoc b) {
+                if (isBetter(a.score, a.doc, b.score, b.doc))
+                    return -1;
+                return isBetter(b.score, b.doc, a.score, a.doc)? 1 : 0;
+            }
+        });
+        return topDocs;
+    }
+
+    private static boolean isBetter(float score, int doc, float thatScore, int thatDoc) {
+        return score > thatScore || (score == thatScore && doc < thatDoc);
+    }
+
+    /**
+     * @return whether the game at heap index i is worse than the one at j
+     */
+    private boolean isWorse(int i, int j) {
+        return isBetter(scores[heap[j]], docs[heap[j]], scores[heap[i]], docs[heap[i]]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isWorse(i, parent))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && isWorse(child + 1, child))
+                child++;
+            if (!isWorse(child, i))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int slot = heap[i];
+        heap[i] = heap[j];
+        heap[j] = slot;
+        heapIndex[heap[i]] = i;
+        heapIndex[heap[j]] = j;
+    }
+
+    private static int hash(int key) {
+        key *= 0x9E3779B9;
+        return key ^ (key >>> 16);
+    }
+
+    private int get(int key) {
+        for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return -1;
+    }
+
+    private void put(int key, int value) {
+        int i = hash(key) & mask;
+        while (used[i])
+            i = (i + 1) & mask;
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * Removes a key and shifts the entries after it back, so that no probe
+     * sequence is broken and no tombstones are left.
+     */
+    private void remove(int key) {
+        int i = hash(key) & mask;
+        while (keys[i] != key || !used[i])
+            i = (i + 1) & mask;
+
+        used[i] = false;
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            // move j to the hole at i unless its home lies cyclically in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                used[i] = true;
+                used[j] = false;
+                i = j;
+            }
+        }
+    }
+}
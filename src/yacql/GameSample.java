@@ -0,0 +1,47 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import pgnparse.PGNSlice;
+
+/**
+ * A random sample of the games of a collection, drawn while its files are
+ * scanned in order. Every game is taken with the same probability, and the
+ * Random has a fixed seed, so the same collection always gives the same
+ * sample, whichever process draws it. Only the slices are kept; the games
+ * are parsed when the sample is counted.
+ *
+ * @author Debasis
+ */
+class GameSample {
+
+    private static final long SEED = 20140706L;
+
+    private final Random random = new Random(SEED);
+    private final double rate;
+    private final List<PGNSlice> games = new ArrayList<PGNSlice>();
+
+    /**
+     * @param oneIn the sample takes one in that many games, on average
+     */
+    GameSample(int oneIn) {
+        rate = 1.0 / Math.max(oneIn, 1);
+    }
+
+    /**
+     * @param slice the next game of the collection
+     */
+    void offer(PGNSlice slice) {
+        if (random.nextDouble() < rate)
+            games.add(slice);
+    }
+
+    List<PGNSlice> getGames() {
+        return games;
+    }
+}
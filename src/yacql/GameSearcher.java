@@ -0,0 +1,115 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+
+/**
+ * An IndexSearcher that collapses the hits to their games. IndexSearcher
+ * only uses its executor for the searches that return TopDocs, so with an
+ * executor this searcher scores every segment of the reader as its own
+ * task into its own GameCollapseCollector and merges the collectors.
+ * Without one, or with a single segment, the search runs on the calling
+ * thread.
+ *
+ * The searcher also holds the features that were pruned from the index
+ * it reads, so that queries can leave them out. An index of another
+ * schema version, see IndexSchema, is not searched.
+ *
+ * @author Debasis
+ */
+public class GameSearcher extends IndexSearcher {
+
+    private final ExecutorService executor;
+    private final PrunedFeatures pruned;
+
+    /**
+     * @param reader
+     * @param executor null to search on the calling thread
+     * @throws IOException
+     */
+    public GameSearcher(IndexReader reader, ExecutorService executor) throws IOException {
+        super(reader);
+        this.executor = executor;
+        if (reader instanceof DirectoryReader) {
+            DirectoryReader dirReader = (DirectoryReader)reader;
+            Map<String, String> data = dirReader.getIndexCommit().getUserData();
+            IndexSchema.check(data, dirReader.directory());
+            pruned = PrunedFeatures.fromCommitData(data);
+        }
+        else {
+            pruned = null;
+        }
+    }
+
+    /**
+     * @return the features pruned from the index, null if none were
+     */
+    public PrunedFeatures getPrunedFeatures() {
+        return pruned;
+    }
+
+    /**
+     * @param query
+     * @param k the number of games wanted
+     * @return the collector holding the best position of each of the top
+     * k games
+     * @throws IOException
+     */
+    public GameCollapseCollector searchGames(Query query, final int k) throws IOException {
+        List<AtomicReaderContext> leaves = getIndexReader().leaves();
+        if (executor == null || leaves.size() < 2) {
+            GameCollapseCollector collector = new GameCollapseCollector(k);
+            search(query, collector);
+            return collector;
+        }
+
+        // one weight, shared by the segments as IndexSearcher does
+        final Weight weight = createNormalizedWeight(query);
+        List<Future<GameCollapseCollector>> segments = new ArrayList<Future<GameCollapseCollector>>(leaves.size());
+
+        for (final AtomicReaderContext leaf : leaves) {
+            segments.add(executor.submit(new Callable<GameCollapseCollector>() {
+                @Override
+                public GameCollapseCollector call() throws Exception {
+                    GameCollapseCollector collector = new GameCollapseCollector(k);
+                    search(Collections.singletonList(leaf), weight, collector);
+                    return collector;
+                }
+            }));
+        }
+
+        GameCollapseCollector merged = new GameCollapseCollector(k);
+        try {
+            for (Future<GameCollapseCollector> segment : segments) {
+                merged.merge(segment.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return merged;
+    }
+}
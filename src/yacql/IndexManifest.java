@@ -0,0 +1,217 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+
+/**
+ * The PGN files an index was built from, kept in the user data of the
+ * index commit so that it is always in step with the documents. For every
+ * file, keyed by its path relative to the collection, the manifest holds
+ * the size, modification time and MD5 of the content that was indexed and
+ * the range of game ids it got. The next free game and doc ids are kept
+ * too, so that an update goes on numbering where the last build stopped,
+ * and the 'max_position_freq' the index was built with.
+ *
+ * @author Debasis
+ */
+public class IndexManifest {
+
+    static final String NEXT_GAME_ID = "next_game_id";
+    static final String NEXT_DOC_ID = "next_doc_id";
+    static final String MAX_POSITION_FREQ = "max_position_freq";
+    static final String FILE_PREFIX = "file:";
+
+    /**
+     * What the manifest records about one PGN file.
+     */
+    public static class Entry {
+        long size;
+        long lastModified;
+        String hash;
+        // 0 if the file has no games
+        int firstGameId;
+        int lastGameId;
+
+        Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        /**
+         * @param f
+         * @return whether the size and modification time of the file are
+         * the ones recorded; if so, it is taken to be unchanged
+         */
+        boolean isUnchanged(File f) {
+            return f.length() == size && f.lastModified() == lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return size + " " + lastModified + " " + hash + " " + firstGameId + " " + lastGameId;
+        }
+
+        static Entry parse(String value) {
+            String[] tokens = value.split(" ");
+            Entry entry = new Entry(Long.parseLong(tokens[0]), Long.parseLong(tokens[1]), tokens[2]);
+            entry.firstGameId = Integer.parseInt(tokens[3]);
+            entry.lastGameId = Integer.parseInt(tokens[4]);
+            return entry;
+        }
+    }
+
+    int nextGameId;
+    int nextDocId;
+    // 0 if every position past 'numskip' was indexed
+    int maxPositionFreq;
+    // sorted, so that the commit data reads in path order
+    Map<String, Entry> files;
+
+    public IndexManifest() {
+        nextGameId = 1;
+        nextDocId = 1;
+        files = new TreeMap<String, Entry>();
+    }
+
+    /**
+     * @param dir
+     * @return the manifest of the latest commit, or null if the directory
+     * holds no index or one built without a manifest
+     * @throws IOException
+     */
+    public static IndexManifest read(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return null;
+
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            return fromCommitData(reader.getIndexCommit().getUserData());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    static IndexManifest fromCommitData(Map<String, String> data) {
+        if (!data.containsKey(NEXT_GAME_ID))
+            return null;
+
+        IndexManifest manifest = new IndexManifest();
+        manifest.nextGameId = Integer.parseInt(data.get(NEXT_GAME_ID));
+        manifest.nextDocId = Integer.parseInt(data.get(NEXT_DOC_ID));
+        if (data.containsKey(MAX_POSITION_FREQ))
+            manifest.maxPositionFreq = Integer.parseInt(data.get(MAX_POSITION_FREQ));
+
+        for (Map.Entry<String, String> e : data.entrySet()) {
+            if (e.getKey().startsWith(FILE_PREFIX))
+                manifest.files.put(e.getKey().substring(FILE_PREFIX.length()), Entry.parse(e.getValue()));
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the manifest as commit user data, for IndexWriter.setCommitData()
+     */
+    public Map<String, String> toCommitData() {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put(NEXT_GAME_ID, String.valueOf(nextGameId));
+        data.put(NEXT_DOC_ID, String.valueOf(nextDocId));
+        data.put(MAX_POSITION_FREQ, String.valueOf(maxPositionFreq));
+
+        for (Map.Entry<String, Entry> e : files.entrySet()) {
+            data.put(FILE_PREFIX + e.getKey(), e.getValue().toString());
+        }
+        return data;
+    }
+
+    public Entry get(String fileId) {
+        return files.get(fileId);
+    }
+
+    /**
+     * Records a file as indexed with its current size, time and content.
+     *
+     * @param fileId
+     * @param f
+     * @param hash the hex MD5 of the content, see {@link #hash(File)}
+     * @return the new entry, its game id range still to be set
+     */
+    public Entry put(String fileId, File f, String hash) {
+        Entry entry = new Entry(f.length(), f.lastModified(), hash);
+        files.put(fileId, entry);
+        return entry;
+    }
+
+    public Entry remove(String fileId) {
+        return files.remove(fileId);
+    }
+
+    /**
+     * Deletes the documents of the files that are no longer in the
+     * collection, and their entries.
+     *
+     * @param seenFiles the ids of the files in the collection
+     * @param writer
+     * @throws IOException
+     */
+    void removeMissing(Set<String> seenFiles, IndexWriter writer) throws IOException {
+        for (String fileId : new ArrayList<String>(files.keySet())) {
+            if (seenFiles.contains(fileId))
+                continue;
+            System.out.println("Removing PGN file " + fileId);
+            writer.deleteDocuments(new Term(ChessPositionIndexer.GAME_FILE_ID_LABEL, fileId));
+            files.remove(fileId);
+        }
+    }
+
+    /**
+     * @param f
+     * @return the hex MD5 of the file content
+     * @throws IOException
+     */
+    public static String hash(File f) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buff = new byte[1 << 16];
+        InputStream in = new FileInputStream(f);
+        try {
+            int n;
+            while ((n = in.read(buff)) > 0) {
+                md5.update(buff, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : md5.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
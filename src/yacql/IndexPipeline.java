@@ -0,0 +1,191 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The threads a pass over a collection runs on. The batches of games are
+ * submitted on the calling thread, parsed by 'parse_threads' threads and
+ * then indexed by 'index_threads' threads. At most 'max_batches' batches
+ * of 'batch_size' games are in the pipeline at any time, so the caller
+ * waits when parsing or indexing falls behind. The parsed batches are
+ * sequenced in the order they were submitted, whatever the number of
+ * threads, and after a batch fails the ones submitted after it are
+ * dropped.
+ *
+ * @author Debasis
+ */
+class IndexPipeline {
+
+    /**
+     * A batch of games that goes through the pipeline.
+     */
+    static abstract class Task {
+        private int seq;
+        private Exception error;
+
+        /**
+         * Runs on a parse thread.
+         */
+        abstract void parse() throws Exception;
+
+        /**
+         * Runs once the tasks submitted before it are sequenced, one task
+         * at a time.
+         */
+        void sequence() {
+        }
+
+        /**
+         * Runs on an index thread after the task is sequenced.
+         */
+        void index() throws Exception {
+        }
+    }
+
+    final int batchSize;
+    private final int parseThreads;
+    private final int indexThreads;
+    private final int maxBatches;
+
+    private ExecutorService parsePool;
+    private ExecutorService indexPool;
+    // a permit per batch that is submitted but not yet indexed
+    private Semaphore inFlight;
+    private int numTasks;
+    // parsed tasks waiting for the tasks submitted before them
+    private final Map<Integer, Task> parsed = new HashMap<Integer, Task>();
+    private int nextSeq;
+    private volatile Exception failure;
+
+    IndexPipeline(Properties prop) {
+        int numProcessors = Runtime.getRuntime().availableProcessors();
+        parseThreads = Integer.parseInt(prop.getProperty("parse_threads", String.valueOf(numProcessors)));
+        indexThreads = Integer.parseInt(prop.getProperty("index_threads", String.valueOf(numProcessors)));
+        batchSize = Integer.parseInt(prop.getProperty("batch_size", "64"));
+        maxBatches = Integer.parseInt(prop.getProperty("max_batches", String.valueOf(4 * (parseThreads + indexThreads))));
+    }
+
+    void start() {
+        parsePool = Executors.newFixedThreadPool(parseThreads);
+        indexPool = Executors.newFixedThreadPool(indexThreads);
+        inFlight = new Semaphore(maxBatches);
+        numTasks = 0;
+        nextSeq = 0;
+        failure = null;
+    }
+
+    /**
+     * Waits until every task submitted is indexed or dropped.
+     *
+     * @throws Exception the first error of a parse or index thread
+     */
+    void finish() throws Exception {
+        try {
+            inFlight.acquire(maxBatches);
+            inFlight.release(maxBatches);
+        }
+        finally {
+            parsePool.shutdown();
+            indexPool.shutdown();
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Waits for room in the pipeline and queues a task for parsing.
+     *
+     * @param task
+     * @throws Exception the first error of a task submitted before
+     */
+    void submit(final Task task) throws Exception {
+        if (failure != null)
+            throw failure;
+
+        inFlight.acquire();
+        task.seq = numTasks++;
+
+        parsePool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.parse();
+                }
+                catch (Throwable t) {
+                    task.error = asException(t);
+                }
+                finally {
+                    // a task that is never sequenced would stall the ones after it
+                    sequence(task);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param t an error of a parse or index thread
+     * @return the error, wrapped if it is not an Exception, so that
+     * finish() can rethrow it
+     */
+    private static Exception asException(Throwable t) {
+        return t instanceof Exception? (Exception)t : new ExecutionException(t);
+    }
+
+    /**
+     * Takes the parsed tasks in the order they were submitted and queues
+     * them for indexing.
+     */
+    private synchronized void sequence(Task task) {
+        parsed.put(task.seq, task);
+
+        while ((task = parsed.remove(nextSeq)) != null) {
+            nextSeq++;
+
+            if (task.error != null && failure == null)
+                failure = task.error;
+            if (failure != null) {
+                // drop the tasks after a failed one
+                inFlight.release();
+                continue;
+            }
+
+            try {
+                task.sequence();
+            }
+            catch (Throwable t) {
+                failure = asException(t);
+                inFlight.release();
+                continue;
+            }
+            final Task ready = task;
+            indexPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.index();
+                    }
+                    catch (Throwable t) {
+                        synchronized (IndexPipeline.this) {
+                            if (failure == null)
+                                failure = asException(t);
+                        }
+                    }
+                    finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * The version of the fields an index is built with, kept in the user data
+ * of every commit. An index of another version cannot be read or updated,
+ * it has to be rebuilt. Indexes written before the version was recorded
+ * count as version 0.
+ *
+ *   1  the packed board of a position in the 'board' doc values
+ *
+ * @author Debasis
+ */
+public final class IndexSchema {
+
+    static final String SCHEMA_VERSION = "schema_version";
+
+    public static final int VERSION = 1;
+
+    private IndexSchema() {
+    }
+
+    /**
+     * @param data commit user data
+     * @return the schema version the data records, 0 if none
+     */
+    static int version(Map<String, String> data) {
+        String version = data.get(SCHEMA_VERSION);
+        return version == null? 0 : Integer.parseInt(version);
+    }
+
+    /**
+     * Records the current version, for IndexWriter.setCommitData().
+     *
+     * @param data
+     */
+    static void addTo(Map<String, String> data) {
+        data.put(SCHEMA_VERSION, String.valueOf(VERSION));
+    }
+
+    /**
+     * @param data the commit user data of an index
+     * @param dir the directory of the index, for the message
+     * @throws IllegalStateException if the index has another version
+     */
+    static void check(Map<String, String> data, Directory dir) {
+        int version = version(data);
+        if (version != VERSION)
+            throw new IllegalStateException("The index in " +
+                    (dir instanceof FSDirectory? ((FSDirectory)dir).getDirectory() : dir) + " has schema version " + version +
+                    ", this code reads version " + VERSION + "; it has to be rebuilt");
+    }
+
+    /**
+     * Checks the latest commit of a directory, if it holds an index.
+     *
+     * @param dir
+     * @throws IOException
+     * @throws IllegalStateException if the index has another version
+     */
+    static void check(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return;
+
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            check(reader.getIndexCommit().getUserData(), dir);
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
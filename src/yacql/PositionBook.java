@@ -0,0 +1,111 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import pgnparse.PGNMove;
+
+/**
+ * The boards too frequent in the collection to be indexed, kept in the
+ * side file 'position.book' of the index. A line holds the 'poshash' term
+ * of a board, its estimated number of occurrences and its FEN, separated
+ * by tabs.
+ *
+ * @author Debasis
+ */
+public class PositionBook {
+
+    public static final String FILE_NAME = "position.book";
+
+    static class Entry {
+        int count;
+        String fen;
+
+        Entry(int count, String fen) {
+            this.count = count;
+            this.fen = fen;
+        }
+    }
+
+    // by hash term, so that the file reads in a fixed order
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * @param indexDir
+     * @return the book of the index, empty if it has none
+     * @throws IOException
+     */
+    public static PositionBook read(File indexDir) throws IOException {
+        PositionBook book = new PositionBook();
+        File f = new File(indexDir, FILE_NAME);
+        if (!f.exists())
+            return book;
+
+        BufferedReader reader = new BufferedReader(new FileReader(f));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split("\t");
+                book.entries.put(tokens[0], new Entry(Integer.parseInt(tokens[1]), tokens[2]));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return book;
+    }
+
+    /**
+     * Writes the book into the index, or removes an old one if the book is
+     * empty.
+     *
+     * @param indexDir
+     * @throws IOException
+     */
+    public void write(File indexDir) throws IOException {
+        File f = new File(indexDir, FILE_NAME);
+        if (size() == 0) {
+            f.delete();
+            return;
+        }
+
+        PrintWriter out = new PrintWriter(new FileWriter(f));
+        try {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.println(e.getKey() + "\t" + e.getValue().count + "\t" + e.getValue().fen);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Notes a board that is not indexed. May be called by several threads.
+     *
+     * @param move
+     * @param count
+     */
+    public synchronized void add(PGNMove move, int count) {
+        String hash = ChessPositionIndexer.positionHashTerm(move);
+        if (!entries.containsKey(hash))
+            entries.put(hash, new Entry(count, move.getFEN()));
+    }
+
+    public synchronized void addAll(PositionBook book) {
+        entries.putAll(book.entries);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
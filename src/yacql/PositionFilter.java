@@ -0,0 +1,123 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import pgnparse.PGNGame;
+import pgnparse.PGNMove;
+
+/**
+ * Which positions of a game are indexed. The initial 'numskip' moves are
+ * not, because these would amount to very large inverted lists; a
+ * reasonable value of 'numskip' is higher than 12. With
+ * 'max_position_freq' above 0 every move counts instead: a first pass
+ * counts how often every board occurs in the whole collection, see
+ * PositionSketch, and the boards that occur at least that often are left
+ * out, whatever the move.
+ *
+ * @author Debasis
+ */
+class PositionFilter {
+
+    private final int numSkip;
+    // null to skip by numskip
+    private final PositionSketch sketch;
+    private final int maxPositionFreq;
+
+    PositionFilter(int numSkip) {
+        this.numSkip = numSkip;
+        this.sketch = null;
+        this.maxPositionFreq = 0;
+    }
+
+    PositionFilter(PositionSketch sketch, int maxPositionFreq) {
+        this.numSkip = 0;
+        this.sketch = sketch;
+        this.maxPositionFreq = maxPositionFreq;
+    }
+
+    /**
+     * Counts the boards of every game of the collection. The games the
+     * features are sampled from can be drawn on the way.
+     *
+     * @param coll the directory of PGN files
+     * @param pipeline
+     * @param sketchWidth
+     * @param maxPositionFreq
+     * @param sample draws its games from the collection, null for none
+     * @return the filter of the counted boards
+     * @throws Exception
+     */
+    static PositionFilter count(File coll, IndexPipeline pipeline, int sketchWidth, int maxPositionFreq,
+            GameSample sample) throws Exception {
+        System.out.println("Counting the positions of the collection");
+        final PositionSketch counts = new PositionSketch(sketchWidth);
+
+        new CollectionPass(pipeline) {
+            @Override
+            void count(List<PGNGame> games) {
+                long[] hashes = new long[256];
+                for (PGNGame game : games) {
+                    Iterator<PGNMove> movesIterator = game.getMovesIterator();
+                    int n = 0;
+                    while (movesIterator.hasNext()) {
+                        PGNMove move = movesIterator.next();
+                        if (move.isEndGameMarked())
+                            break;
+                        if (n == hashes.length)
+                            hashes = Arrays.copyOf(hashes, n << 1);
+                        hashes[n++] = move.getPositionHash();
+                    }
+                    counts.add(hashes, n);
+                }
+            }
+        }.run(coll, sample);
+        return new PositionFilter(counts, maxPositionFreq);
+    }
+
+    /**
+     * @return whether the boards are left out by their count
+     */
+    boolean isCounted() {
+        return sketch != null;
+    }
+
+    /**
+     * @param num the ply of the position, from 0
+     * @param move
+     * @return whether the position is indexed
+     */
+    boolean isIndexed(int num, PGNMove move) {
+        if (sketch == null)
+            return (num>>1) >= numSkip;
+        return sketch.estimate(move.getPositionHash()) < maxPositionFreq;
+    }
+
+    /**
+     * @param move
+     * @return the estimated number of occurrences of the board of the move,
+     * never below the true one
+     */
+    int estimate(PGNMove move) {
+        return sketch.estimate(move.getPositionHash());
+    }
+
+    int numIndexedPositions(PGNGame game) {
+        Iterator<PGNMove> movesIterator = game.getMovesIterator();
+        int count = 0;
+
+        for (int num = 0; movesIterator.hasNext(); num++) {
+            PGNMove move = movesIterator.next();
+            if (move.isEndGameMarked())
+                break;
+            if (isIndexed(num, move))
+                count++;
+        }
+        return count;
+    }
+}
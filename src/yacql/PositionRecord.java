@@ -0,0 +1,197 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+import pgnparse.PGNMove;
+
+/**
+ * What the index keeps about a position, read from the DocValues of its
+ * document: the docid, game id and ply are numeric, the game info is
+ * sorted (so it is held once per game and segment) and the board is the
+ * 32 byte packed position of PGNMove.getPackedBoard(). Nothing is read
+ * from the stored fields.
+ *
+ * In a deduplicated index the docid, game id and ply come from the
+ * occurrence of the game of the hit in the position document, and the
+ * game info from the document of the game.
+ *
+ * @author Debasis
+ */
+public class PositionRecord {
+
+    int docId;
+    int gameId;
+    int ply;
+    String info;
+    byte[] packedBoard;
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public int getGameId() {
+        return gameId;
+    }
+
+    public int getPly() {
+        return ply;
+    }
+
+    public String getInfo() {
+        return info;
+    }
+
+    public byte[][] getBoard() {
+        return PGNMove.unpackBoard(packedBoard, 0);
+    }
+
+    public String getFEN() {
+        return PGNMove.getFENStatic(getBoard());
+    }
+
+    /**
+     * @param reader
+     * @param doc a Lucene doc number of the reader
+     * @return the record of the document
+     * @throws IOException
+     */
+    public static PositionRecord load(IndexReader reader, int doc) throws IOException {
+        return load(reader.leaves(), new ScoreDoc(doc, 0), new BytesRef(), new LastOccurrences());
+    }
+
+    /**
+     * @param reader
+     * @param docs the hits; for a deduplicated index they have to be
+     * GameScoreDocs, which tell the game of the position
+     * @return the records of the documents, in the same order
+     * @throws IOException
+     */
+    public static PositionRecord[] load(IndexReader reader, ScoreDoc[] docs) throws IOException {
+        List<AtomicReaderContext> leaves = reader.leaves();
+        PositionRecord[] records = new PositionRecord[docs.length];
+        BytesRef bytes = new BytesRef();
+        LastOccurrences last = new LastOccurrences();
+
+        for (int i = 0; i < docs.length; i++) {
+            records[i] = load(leaves, docs[i], bytes, last);
+        }
+        return records;
+    }
+
+    /**
+     * The occurrence list decoded last: the games of a board tend to come
+     * one after the other.
+     */
+    private static class LastOccurrences {
+        int doc = -1;
+        int[] occurrences;
+    }
+
+    private static PositionRecord load(List<AtomicReaderContext> leaves, ScoreDoc hit, BytesRef bytes, LastOccurrences last) throws IOException {
+        AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(hit.doc, leaves));
+        AtomicReader reader = leaf.reader();
+        int doc = hit.doc - leaf.docBase;
+        PositionRecord record = new PositionRecord();
+
+        BinaryDocValues occurrences = reader.getBinaryDocValues(ChessPositionIndexer.OCCURRENCES_LABEL);
+        if (occurrences != null) {
+            int game = hit instanceof GameCollapseCollector.GameScoreDoc?
+                    ((GameCollapseCollector.GameScoreDoc)hit).game : -1;
+            if (last.doc != hit.doc) {
+                occurrences.get(doc, bytes);
+                last.occurrences = PositionTable.decode(bytes);
+                last.doc = hit.doc;
+            }
+            loadOccurrence(record, last.occurrences, game);
+            record.info = gameInfo(leaves, record.gameId, bytes);
+        }
+        else {
+            record.docId = (int)numeric(reader, ChessPositionIndexer.LUCENE_DOC_ID).get(doc);
+            record.gameId = (int)numeric(reader, ChessPositionIndexer.GAME_ID_LABEL).get(doc);
+            record.ply = (int)numeric(reader, ChessPositionIndexer.GAME_STATE_ID_LABEL).get(doc);
+
+            SortedDocValues infos = reader.getSortedDocValues(ChessPositionIndexer.GAME_INFO_LABEL);
+            if (infos != null) {
+                infos.get(doc, bytes);
+                record.info = bytes.utf8ToString();
+            }
+        }
+
+        BinaryDocValues boards = reader.getBinaryDocValues(ChessPositionIndexer.GAME_BOARD_LABEL);
+        if (boards == null)
+            throw new IllegalStateException("No packed boards in the index, it has to be rebuilt");
+        boards.get(doc, bytes);
+        record.packedBoard = new byte[bytes.length];
+        System.arraycopy(bytes.bytes, bytes.offset, record.packedBoard, 0, bytes.length);
+
+        return record;
+    }
+
+    /**
+     * Takes the first occurrence of the game, or the first of all if the
+     * game is not known.
+     */
+    private static void loadOccurrence(PositionRecord record, int[] occurrences, int game) {
+        // sorted on the docid, and so on the game id
+        int low = 0;
+        int high = occurrences.length / 3;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (occurrences[mid * 3 + 1] < game)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        int i = low * 3;
+        if (i == occurrences.length || occurrences[i + 1] != game)
+            i = 0;
+
+        record.docId = occurrences[i];
+        record.gameId = occurrences[i + 1];
+        record.ply = occurrences[i + 2];
+    }
+
+    /**
+     * @return the info of the game document of a deduplicated index
+     */
+    private static String gameInfo(List<AtomicReaderContext> leaves, int gameId, BytesRef bytes) throws IOException {
+        Term term = new Term(ChessPositionIndexer.GAME_DOC_LABEL, String.valueOf(gameId));
+
+        for (AtomicReaderContext leaf : leaves) {
+            DocsEnum docs = leaf.reader().termDocsEnum(term);
+            if (docs == null)
+                continue;
+            int doc = docs.nextDoc();
+            if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                continue;
+
+            SortedDocValues infos = leaf.reader().getSortedDocValues(ChessPositionIndexer.GAME_INFO_LABEL);
+            if (infos == null)
+                return null;
+            infos.get(doc, bytes);
+            return bytes.utf8ToString();
+        }
+        return null;
+    }
+
+    private static NumericDocValues numeric(AtomicReader reader, String field) throws IOException {
+        NumericDocValues values = reader.getNumericDocValues(field);
+        return values == null? NumericDocValues.EMPTY : values;
+    }
+}
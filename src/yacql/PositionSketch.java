@@ -0,0 +1,72 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A count-min sketch of how often the boards of a collection occur, keyed
+ * by their Zobrist hash. It has four rows of 'width' int counters, kept
+ * off the heap in a direct buffer. An estimate is never below the true
+ * count; with conservative update, where an add only raises the counters
+ * that are at the minimum, it is seldom much above it as long as the
+ * width is not small next to the number of distinct boards.
+ *
+ * @author Debasis
+ */
+public class PositionSketch {
+
+    private static final int DEPTH = 4;
+    // odd multipliers, one per row
+    private static final long[] SEEDS = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final IntBuffer counters;
+    private final int shift;
+    private final int width;
+
+    /**
+     * @param width the counters per row, rounded up to a power of 2
+     */
+    public PositionSketch(int width) {
+        this.width = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        shift = 64 - Integer.numberOfTrailingZeros(this.width);
+        counters = ByteBuffer.allocateDirect(DEPTH * this.width * 4).asIntBuffer();
+    }
+
+    private int index(int row, long hash) {
+        return row * width + (int)((hash * SEEDS[row]) >>> shift);
+    }
+
+    /**
+     * @param hashes the board hashes of a game, or of several
+     * @param n the number of hashes
+     */
+    public synchronized void add(long[] hashes, int n) {
+        for (int i = 0; i < n; i++) {
+            long hash = hashes[i];
+            int count = estimate(hash) + 1;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(row, hash);
+                if (counters.get(index) < count)
+                    counters.put(index, count);
+            }
+        }
+    }
+
+    /**
+     * @param hash
+     * @return at least the number of times the board was added
+     */
+    public int estimate(long hash) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters.get(index(row, hash)));
+        }
+        return min;
+    }
+}
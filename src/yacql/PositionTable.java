@@ -0,0 +1,412 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntroSorter;
+import pgnparse.PGNMove;
+
+/**
+ * The distinct boards of a collection and where each of them occurs, for
+ * the deduplicated index layout. Every board becomes one document with
+ * the graph encoding, the 'poshash' term and the packed board of the
+ * per-position layout, and the list of its occurrences in the binary
+ * DocValues 'occ'. An occurrence is the docid the position would have had
+ * as a document of its own, the game id and the ply.
+ *
+ * The occurrences are collected in a buffer of a fixed number of them.
+ * A full buffer is sorted on the hash, the board and the docid and
+ * written to a temporary file, so the memory taken does not grow with the
+ * collection. The sorted runs and the last buffer are then merged, which
+ * brings the occurrences of a board together, and the boards are added in
+ * the order of their hashes.
+ *
+ * The occurrences are written sorted on the docid, as variable length
+ * deltas. A board with more occurrences than fit in one DocValues value
+ * is split over several documents.
+ *
+ * @author Debasis
+ */
+public class PositionTable implements Closeable {
+
+    // the longest binary DocValues value of the default codec
+    static final int MAX_OCCURRENCE_BYTES = 32766;
+    // three vints at most
+    private static final int MAX_OCCURRENCE_LENGTH = 15;
+    private static final int BOARD_BYTES = 32;
+
+    /**
+     * The occurrences of a buffer or a run, one after the other in sort
+     * order.
+     */
+    private static abstract class Occurrences {
+        long hash;
+        final byte[] board = new byte[BOARD_BYTES];
+        int docId;
+        int gameId;
+        int ply;
+
+        /**
+         * @return false at the end
+         */
+        abstract boolean next() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    private static int compare(long hash, byte[] board, int boardOffset, int docId,
+            long thatHash, byte[] thatBoard, int thatBoardOffset, int thatDocId) {
+        if (hash != thatHash)
+            return hash < thatHash? -1 : 1;
+        for (int i = 0; i < BOARD_BYTES; i++) {
+            int diff = (board[boardOffset + i] & 0xff) - (thatBoard[thatBoardOffset + i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+        return Integer.compare(docId, thatDocId);
+    }
+
+    private static final Comparator<Occurrences> ORDER = new Comparator<Occurrences>() {
+        @Override
+        public int compare(Occurrences a, Occurrences b) {
+            return PositionTable.compare(a.hash, a.board, 0, a.docId, b.hash, b.board, 0, b.docId);
+        }
+    };
+
+    // the buffer, by occurrence
+    private final int capacity;
+    private final long[] hashes;
+    private final byte[] boards;
+    private final int[] docIds;
+    private final int[] gameIds;
+    private final int[] plies;
+    private int size;
+
+    private final File tmpDir;
+    private final List<File> runs = new ArrayList<File>();
+    private long numOccurrences;
+
+    /**
+     * @param capacity the number of occurrences kept in memory, about 56
+     * bytes each
+     * @param tmpDir where the sorted runs go, null for the default
+     * temporary directory
+     */
+    public PositionTable(int capacity, File tmpDir) {
+        this.capacity = capacity;
+        this.tmpDir = tmpDir;
+        hashes = new long[capacity];
+        boards = new byte[capacity * BOARD_BYTES];
+        docIds = new int[capacity];
+        gameIds = new int[capacity];
+        plies = new int[capacity];
+    }
+
+    /**
+     * Notes an occurrence of the position before a move. May be called by
+     * several threads.
+     *
+     * @param move
+     * @param docId
+     * @param gameId
+     * @param ply
+     * @throws IOException if the buffer cannot be written out
+     */
+    public synchronized void add(PGNMove move, int docId, int gameId, int ply) throws IOException {
+        if (size == capacity)
+            spill();
+
+        hashes[size] = move.getPositionHash();
+        System.arraycopy(move.getPackedBoard(), 0, boards, size * BOARD_BYTES, BOARD_BYTES);
+        docIds[size] = docId;
+        gameIds[size] = gameId;
+        plies[size] = ply;
+        size++;
+        numOccurrences++;
+    }
+
+    public synchronized long getNumOccurrences() {
+        return numOccurrences;
+    }
+
+    /**
+     * @return the number of runs written to disk so far
+     */
+    public synchronized int getNumRuns() {
+        return runs.size();
+    }
+
+    /**
+     * @return the order of the occurrences in the buffer
+     */
+    private int[] sortBuffer() {
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        new IntroSorter() {
+            private int pivot;
+
+            @Override
+            protected int compare(int i, int j) {
+                return PositionTable.compare(hashes[order[i]], boards, order[i] * BOARD_BYTES, docIds[order[i]],
+                        hashes[order[j]], boards, order[j] * BOARD_BYTES, docIds[order[j]]);
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+
+            @Override
+            protected void setPivot(int i) {
+                pivot = order[i];
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                return PositionTable.compare(hashes[pivot], boards, pivot * BOARD_BYTES, docIds[pivot],
+                        hashes[order[j]], boards, order[j] * BOARD_BYTES, docIds[order[j]]);
+            }
+        }.sort(0, size);
+        return order;
+    }
+
+    /**
+     * Writes the buffer, sorted, to a new run and empties it.
+     */
+    private void spill() throws IOException {
+        int[] order = sortBuffer();
+        File run = File.createTempFile("positions", ".run", tmpDir);
+        runs.add(run);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+        try {
+            for (int i : order) {
+                out.writeLong(hashes[i]);
+                out.write(boards, i * BOARD_BYTES, BOARD_BYTES);
+                out.writeInt(docIds[i]);
+                out.writeInt(gameIds[i]);
+                out.writeInt(plies[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+        size = 0;
+    }
+
+    private Occurrences buffer() {
+        final int[] order = sortBuffer();
+
+        return new Occurrences() {
+            private int next;
+
+            @Override
+            boolean next() {
+                if (next == order.length)
+                    return false;
+                int i = order[next++];
+                hash = hashes[i];
+                System.arraycopy(boards, i * BOARD_BYTES, board, 0, BOARD_BYTES);
+                docId = docIds[i];
+                gameId = gameIds[i];
+                ply = plies[i];
+                return true;
+            }
+        };
+    }
+
+    private static Occurrences run(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+        return new Occurrences() {
+            @Override
+            boolean next() throws IOException {
+                try {
+                    hash = in.readLong();
+                }
+                catch (EOFException e) {
+                    return false;
+                }
+                in.readFully(board);
+                docId = in.readInt();
+                gameId = in.readInt();
+                ply = in.readInt();
+                return true;
+            }
+
+            @Override
+            void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Adds the documents of the boards, in the order of their hashes, and
+     * deletes the runs.
+     *
+     * @param writer
+     * @param posStream
+     * @return the number of distinct boards
+     * @throws IOException
+     */
+    public synchronized int write(IndexWriter writer, BoardFeatureTokenStream posStream) throws IOException {
+        final PriorityQueue<Occurrences> queue = new PriorityQueue<Occurrences>(runs.size() + 1, ORDER);
+        List<Occurrences> sources = new ArrayList<Occurrences>(runs.size() + 1);
+
+        try {
+            sources.add(buffer());
+            for (File run : runs) {
+                sources.add(run(run));
+            }
+            for (Occurrences source : sources) {
+                if (source.next())
+                    queue.add(source);
+            }
+
+            return write(new Occurrences() {
+                private Occurrences last;
+
+                @Override
+                boolean next() throws IOException {
+                    // the source of the last occurrence goes back in at its next one
+                    if (last != null && last.next())
+                        queue.add(last);
+                    last = queue.poll();
+                    if (last == null)
+                        return false;
+                    hash = last.hash;
+                    System.arraycopy(last.board, 0, board, 0, BOARD_BYTES);
+                    docId = last.docId;
+                    gameId = last.gameId;
+                    ply = last.ply;
+                    return true;
+                }
+            }, writer, posStream);
+        }
+        finally {
+            for (Occurrences source : sources) {
+                source.close();
+            }
+            close();
+        }
+    }
+
+    /**
+     * @return the number of distinct boards
+     */
+    private static int write(Occurrences occurrences, IndexWriter writer, BoardFeatureTokenStream posStream) throws IOException {
+        byte[] buff = new byte[MAX_OCCURRENCE_BYTES];
+        ByteArrayDataOutput out = new ByteArrayDataOutput(buff);
+        long hash = 0;
+        byte[] board = new byte[BOARD_BYTES];
+        int lastDocId = 0;
+        int lastGameId = 0;
+        int numPositions = 0;
+
+        while (occurrences.next()) {
+            boolean sameBoard = numPositions > 0 && occurrences.hash == hash && Arrays.equals(occurrences.board, board);
+
+            if (!sameBoard || out.getPosition() + MAX_OCCURRENCE_LENGTH > MAX_OCCURRENCE_BYTES) {
+                if (numPositions > 0)
+                    writer.addDocument(buildDocument(hash, board, new BytesRef(buff, 0, out.getPosition()), posStream));
+                if (!sameBoard) {
+                    hash = occurrences.hash;
+                    System.arraycopy(occurrences.board, 0, board, 0, BOARD_BYTES);
+                    numPositions++;
+                }
+                out.reset(buff);
+                lastDocId = 0;
+                lastGameId = 0;
+            }
+
+            // the docids, and so the game ids, do not go down
+            out.writeVInt(occurrences.docId - lastDocId);
+            out.writeVInt(occurrences.gameId - lastGameId);
+            out.writeVInt(occurrences.ply);
+            lastDocId = occurrences.docId;
+            lastGameId = occurrences.gameId;
+        }
+
+        if (numPositions > 0)
+            writer.addDocument(buildDocument(hash, board, new BytesRef(buff, 0, out.getPosition()), posStream));
+        return numPositions;
+    }
+
+    private static Document buildDocument(long hash, byte[] packedBoard, BytesRef occurrences, BoardFeatureTokenStream posStream) {
+        Document doc = new Document();
+
+        doc.add(new BinaryDocValuesField(ChessPositionIndexer.GAME_BOARD_LABEL, new BytesRef(packedBoard)));
+        doc.add(new BinaryDocValuesField(ChessPositionIndexer.OCCURRENCES_LABEL, occurrences));
+        doc.add(new StringField(ChessPositionIndexer.GAME_POS_HASH_LABEL,
+                ChessPositionIndexer.positionHashTerm(hash), Field.Store.NO));
+        doc.add(new TextField(ChessPositionIndexer.GAME_POS_LABEL,
+                posStream.setBoard(PGNMove.unpackBoard(packedBoard, 0), true)));
+
+        return doc;
+    }
+
+    /**
+     * Empties the table and deletes its runs.
+     */
+    @Override
+    public synchronized void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        size = 0;
+    }
+
+    /**
+     * @param bytes an 'occ' value
+     * @return the occurrences, as docid, game id and ply
+     */
+    public static int[] decode(BytesRef bytes) {
+        ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+        int[] occurrences = new int[30];
+        int size = 0;
+        int docId = 0;
+        int gameId = 0;
+
+        while (!in.eof()) {
+            if (size == occurrences.length)
+                occurrences = Arrays.copyOf(occurrences, size << 1);
+            occurrences[size++] = docId += in.readVInt();
+            occurrences[size++] = gameId += in.readVInt();
+            occurrences[size++] = in.readVInt();
+        }
+        return Arrays.copyOf(occurrences, size);
+    }
+}
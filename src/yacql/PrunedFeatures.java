@@ -0,0 +1,236 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import pgnparse.GameFeatureEncoder;
+import pgnparse.GraphEncoder;
+import pgnparse.PGNGame;
+import pgnparse.PGNMove;
+import pgnparse.PGNSlice;
+
+/**
+ * The features left out of the 'pos' field of an index because they occur
+ * in too many positions to tell them apart. The list is kept in the user
+ * data of the index commit, as space separated terms, so that queries on
+ * the index can leave the features out as well. The document frequencies
+ * are taken from the indexed positions of a random sample of the games,
+ * see GameSample, or from an index built before.
+ *
+ * @author Debasis
+ */
+public class PrunedFeatures {
+
+    static final String PRUNED_TERMS = "pruned_terms";
+
+    private final boolean[] pruned = new boolean[FeatureVocabulary.SIZE];
+    private int size;
+
+    public boolean contains(int id) {
+        return pruned[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void add(int id) {
+        if (id >= 0 && !pruned[id]) {
+            pruned[id] = true;
+            size++;
+        }
+    }
+
+    /**
+     * @param df the number of positions each feature id occurs in
+     * @param numDocs the number of positions
+     * @param maxRatio
+     * @return the features in more than maxRatio of the positions
+     */
+    public static PrunedFeatures fromDocFreqs(int[] df, int numDocs, float maxRatio) {
+        PrunedFeatures features = new PrunedFeatures();
+        for (int id = 0; id < df.length; id++) {
+            if (df[id] > maxRatio * numDocs)
+                features.add(id);
+        }
+        return features;
+    }
+
+    /**
+     * The number of positions each feature occurs in, over the positions
+     * one thread has seen.
+     */
+    private static class DocFreqs implements GraphEncoder.TermSink {
+        final int[] df = new int[FeatureVocabulary.SIZE];
+        // the position each feature was last counted for
+        final int[] counted = new int[FeatureVocabulary.SIZE];
+        int numDocs;
+        final GameFeatureEncoder encoder = new GameFeatureEncoder();
+
+        void add(PGNMove move) {
+            numDocs++;
+            encoder.encode(move, true, this);
+        }
+
+        @Override
+        public void term(int id, int distance) {
+            if (counted[id] != numDocs) {
+                counted[id] = numDocs;
+                df[id]++;
+            }
+        }
+
+        @Override
+        public void endPiece() {
+        }
+    }
+
+    /**
+     * Parses the sampled games and counts the features of the positions
+     * that are indexed.
+     *
+     * @param games the sample
+     * @param filter the positions that are indexed
+     * @param pipeline
+     * @param maxRatio
+     * @return the features in more than maxRatio of the sampled positions
+     * @throws Exception
+     */
+    static PrunedFeatures fromSample(List<PGNSlice> games, final PositionFilter filter,
+            IndexPipeline pipeline, float maxRatio) throws Exception {
+        final List<DocFreqs> threadCounts = new ArrayList<DocFreqs>();
+        // the counts of each parse thread are added up at the end
+        final ThreadLocal<DocFreqs> counts = new ThreadLocal<DocFreqs>() {
+            @Override
+            protected DocFreqs initialValue() {
+                DocFreqs docFreqs = new DocFreqs();
+                synchronized (threadCounts) {
+                    threadCounts.add(docFreqs);
+                }
+                return docFreqs;
+            }
+        };
+
+        new CollectionPass(pipeline) {
+            @Override
+            void count(List<PGNGame> games) {
+                DocFreqs docFreqs = counts.get();
+                for (PGNGame game : games) {
+                    Iterator<PGNMove> movesIterator = game.getMovesIterator();
+                    for (int num = 0; movesIterator.hasNext(); num++) {
+                        PGNMove move = movesIterator.next();
+                        if (move.isEndGameMarked())
+                            break;
+                        if (filter.isIndexed(num, move))
+                            docFreqs.add(move);
+                    }
+                }
+            }
+        }.run(games);
+
+        int[] df = new int[FeatureVocabulary.SIZE];
+        int numDocs = 0;
+        for (DocFreqs docFreqs : threadCounts) {
+            for (int id = 0; id < df.length; id++) {
+                df[id] += docFreqs.df[id];
+            }
+            numDocs += docFreqs.numDocs;
+        }
+        return fromDocFreqs(df, numDocs, maxRatio);
+    }
+
+    /**
+     * @param reader
+     * @param maxRatio
+     * @return the features of the index in more than maxRatio of its
+     * positions, and those already pruned from it
+     * @throws IOException
+     */
+    public static PrunedFeatures fromIndex(DirectoryReader reader, float maxRatio) throws IOException {
+        PrunedFeatures features = fromCommitData(reader.getIndexCommit().getUserData());
+        if (features == null)
+            features = new PrunedFeatures();
+
+        Terms terms = MultiFields.getTerms(reader, ChessPositionIndexer.GAME_POS_LABEL);
+        if (terms == null)
+            return features;
+
+        int numDocs = terms.getDocCount();
+        TermsEnum termsEnum = terms.iterator(null);
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            if (termsEnum.docFreq() > maxRatio * numDocs)
+                features.add(FeatureVocabulary.id(term.utf8ToString()));
+        }
+        return features;
+    }
+
+    /**
+     * @param dir
+     * @return the pruned features of the latest commit, null if the
+     * directory holds no index or its features are not pruned
+     * @throws IOException
+     */
+    public static PrunedFeatures read(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return null;
+
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            return fromCommitData(reader.getIndexCommit().getUserData());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    static PrunedFeatures fromCommitData(Map<String, String> data) {
+        String terms = data.get(PRUNED_TERMS);
+        if (terms == null)
+            return null;
+
+        PrunedFeatures features = new PrunedFeatures();
+        for (String term : terms.split(" ")) {
+            if (!term.isEmpty())
+                features.add(FeatureVocabulary.id(term));
+        }
+        return features;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PrunedFeatures && Arrays.equals(pruned, ((PrunedFeatures)other).pruned);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(pruned);
+    }
+
+    /**
+     * Puts the features in commit user data.
+     *
+     * @param data
+     */
+    public void addTo(Map<String, String> data) {
+        StringBuilder terms = new StringBuilder();
+        for (int id = 0; id < pruned.length; id++) {
+            if (pruned[id])
+                terms.append(FeatureVocabulary.chars(id)).append(' ');
+        }
+        data.put(PRUNED_TERMS, terms.toString().trim());
+    }
+}
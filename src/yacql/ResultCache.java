@@ -0,0 +1,140 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+import pgnparse.PGNMove;
+
+/**
+ * The collapsed top games of recent query positions, least recently used
+ * first out. A position is looked up by its Zobrist hash and the number of
+ * games wanted, so a transposition of a cached position is a hit as well;
+ * the packed board is compared too, so that two boards with the same hash
+ * never share results.
+ *
+ * The hits are doc numbers of one reader. The cache holds the results of
+ * the reader it was last invalidated with, and gives nothing for another
+ * one: a search still running on an older reader neither reads nor adds
+ * entries.
+ *
+ * @author Debasis
+ */
+public class ResultCache {
+
+    static class Key {
+        long hash;
+        int numWanted;
+
+        Key(long hash, int numWanted) {
+            this.hash = hash;
+            this.numWanted = numWanted;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key that = (Key)o;
+            return hash == that.hash && numWanted == that.numWanted;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(hash ^ (hash >>> 32)) * 31 + numWanted;
+        }
+    }
+
+    static class CachedResult {
+        byte[] packedBoard;
+        ScoreDoc[] hits;
+        PositionRecord[] records;
+
+        CachedResult(byte[] packedBoard, ScoreDoc[] hits, PositionRecord[] records) {
+            this.packedBoard = packedBoard;
+            this.hits = hits;
+            this.records = records;
+        }
+    }
+
+    private final Map<Key, CachedResult> entries;
+    private IndexReader reader;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxSize the number of positions kept
+     */
+    public ResultCache(final int maxSize) {
+        entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param reader the reader the search would run on
+     * @param move the query position
+     * @param numWanted
+     * @return the cached result of the position, or null
+     */
+    public synchronized RetrievalResult get(IndexReader reader, PGNMove move, int numWanted) {
+        CachedResult entry = null;
+        if (reader == this.reader) {
+            entry = entries.get(new Key(move.getPositionHash(), numWanted));
+            if (entry != null && !Arrays.equals(entry.packedBoard, move.getPackedBoard()))
+                entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        // the hits are shared by all the results of the position
+        return new RetrievalResult(move, entry.hits, entry.records);
+    }
+
+    /**
+     * @param reader the reader the result was found on
+     * @param result
+     * @param numWanted
+     */
+    public synchronized void put(IndexReader reader, RetrievalResult result, int numWanted) {
+        if (reader != this.reader)
+            return;
+        PGNMove move = result.getQuery();
+        entries.put(new Key(move.getPositionHash(), numWanted),
+                new CachedResult(move.getPackedBoard(), result.getHits(), result.getRecords()));
+    }
+
+    /**
+     * Drops all the entries; from now on only results of the given reader
+     * are cached.
+     *
+     * @param reader
+     */
+    public synchronized void invalidate(IndexReader reader) {
+        entries.clear();
+        this.reader = reader;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
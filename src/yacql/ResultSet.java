@@ -38,6 +38,7 @@ class ScoreDocRel implements Serializable, Comparable {
 
 public class ResultSet implements Serializable {
     String query;
+    String fen;     // of the query position, if known
     int    nretr;
     List<ScoreDocRel> hits;
     
@@ -57,6 +58,11 @@ public class ResultSet implements Serializable {
         nretr = scoreDocs.length;
     }
     
+    public ResultSet(String query, String fen, ScoreDoc[] scoreDocs) {
+        this(query, scoreDocs);
+        this.fen = fen;
+    }
+    
     public int getNumRet() {
         return nretr;
     }
@@ -71,6 +77,10 @@ public class ResultSet implements Serializable {
     public String getQuery() {
         return this.query;
     }
+
+    public String getFEN() {
+        return this.fen;
+    }
     
     @Override
     public String toString() {
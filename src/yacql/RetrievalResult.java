@@ -0,0 +1,41 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import org.apache.lucene.search.ScoreDoc;
+import pgnparse.PGNMove;
+
+/**
+ * What one search returns: the query position, the best position of each
+ * of the top games and their records. The records are read before the
+ * searcher is released, so they still match the hits after the index has
+ * been refreshed.
+ *
+ * @author Debasis
+ */
+public class RetrievalResult {
+
+    PGNMove query;
+    ScoreDoc[] hits;
+    PositionRecord[] records;
+
+    public RetrievalResult(PGNMove query, ScoreDoc[] hits, PositionRecord[] records) {
+        this.query = query;
+        this.hits = hits;
+        this.records = records;
+    }
+
+    public PGNMove getQuery() {
+        return query;
+    }
+
+    public ScoreDoc[] getHits() {
+        return hits;
+    }
+
+    public PositionRecord[] getRecords() {
+        return records;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.File;
+import java.util.Map;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Adds the shards of an index to a new index and deletes them. Shard k of
+ * n numbers its games and positions k + 1, k + 1 + n, k + 1 + 2n, ... so
+ * the ids stay unique without the shards knowing of each other, and the
+ * shards are added with IndexWriter.addIndexes().
+ *
+ * The manifests of the shards are combined into the manifest of the
+ * index, its next ids past the ids of every shard, and their position
+ * books are combined too. The shards have to have the same pruned
+ * features.
+ *
+ * @author Debasis
+ */
+class ShardMerger {
+
+    private final File[] shardDirs;
+
+    /**
+     * @param shardDirs the directories of the shards, in shard order
+     */
+    ShardMerger(File[] shardDirs) {
+        this.shardDirs = shardDirs;
+    }
+
+    /**
+     * @param indexDir
+     * @param maxSegments the index is merged down to that many segments,
+     * 0 to leave it as it is
+     * @throws Exception
+     */
+    void merge(File indexDir, int maxSegments) throws Exception {
+        int numShards = shardDirs.length;
+        Directory[] shards = new Directory[numShards];
+        IndexManifest merged = new IndexManifest();
+        PositionBook mergedBook = new PositionBook();
+        PrunedFeatures mergedPruned = null;
+
+        for (int k = 0; k < numShards; k++) {
+            shards[k] = FSDirectory.open(shardDirs[k]);
+            IndexSchema.check(shards[k]);
+            mergedBook.addAll(PositionBook.read(shardDirs[k]));
+            IndexManifest shardManifest = IndexManifest.read(shards[k]);
+            if (shardManifest == null)
+                throw new IllegalStateException("No shard index in " + shardDirs[k]);
+
+            merged.files.putAll(shardManifest.files);
+            merged.nextGameId = Math.max(merged.nextGameId, shardManifest.nextGameId);
+            merged.nextDocId = Math.max(merged.nextDocId, shardManifest.nextDocId);
+            merged.maxPositionFreq = shardManifest.maxPositionFreq;
+            // the documents of all shards have to leave out the same features
+            PrunedFeatures shardPruned = PrunedFeatures.read(shards[k]);
+            if (k == 0)
+                mergedPruned = shardPruned;
+            else if (mergedPruned == null? shardPruned != null : !mergedPruned.equals(shardPruned))
+                throw new IllegalStateException("Shard " + k + " does not prune the features shard 0 does;" +
+                        " the shards have to be built from the same collection and properties");
+        }
+
+        System.out.println("Merging " + numShards + " shards");
+        IndexWriterConfig iwcfg = new IndexWriterConfig(Version.LUCENE_CURRENT, new PayloadAnalyzer());
+        iwcfg.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir), iwcfg);
+        boolean success = false;
+
+        try {
+            writer.addIndexes(shards);
+            if (maxSegments > 0)
+                writer.forceMerge(maxSegments);
+            Map<String, String> commitData = merged.toCommitData();
+            IndexSchema.addTo(commitData);
+            if (mergedPruned != null)
+                mergedPruned.addTo(commitData);
+            writer.setCommitData(commitData);
+            writer.commit();
+            success = true;
+        }
+        finally {
+            // a failed merge leaves the old index as it was
+            if (success)
+                writer.close();
+            else
+                writer.rollback();
+        }
+        mergedBook.write(indexDir);
+
+        for (int k = 0; k < numShards; k++) {
+            for (String file : shards[k].listAll()) {
+                shards[k].deleteFile(file);
+            }
+            shards[k].close();
+            shardDirs[k].delete();
+        }
+        // only goes if no other files were put there
+        shardDirs[0].getParentFile().delete();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Parses a sample of the IB1314 collection (every 16th game, names
+ * reduced to ASCII) and compares a digest of every game with the one the
+ * original parser and encoder gave: the moves as parsed, the FEN and the
+ * document and query graph encodings of every position. games.sha1 was
+ * written by {@link #main(String[])} run against the first version of
+ * the code, so the moves, boards and encodings have to stay exactly the
+ * same. Only the API that version had is used.
+ *
+ * @author Debasis
+ *
+ */
+public class CorpusDigestTest {
+
+	static File corpus() throws Exception {
+		return new File(CorpusDigestTest.class.getResource("games.pgn").toURI());
+	}
+
+	/**
+	 *
+	 * @param game
+	 * @return everything the parser and encoder give for the game
+	 */
+	static String dump(PGNGame game) {
+		StringBuilder buff = new StringBuilder();
+		Iterator<PGNMove> moves = game.getMovesIterator();
+
+		while (moves.hasNext()) {
+			PGNMove move = moves.next();
+
+			buff.append(move.getFullMove()).append(' ').append(move.getMove()).append(' ')
+				.append(move.getPiece()).append(' ').append(move.getColor()).append(' ')
+				.append(move.getFromSquare()).append(' ').append(move.getToSquare()).append(' ')
+				.append(move.isChecked()).append(move.isCheckMated()).append(move.isCaptured())
+				.append(move.isPromoted()).append(move.getPromotion())
+				.append(move.isKingSideCastle()).append(move.isQueenSideCastle())
+				.append(move.isEnpassant()).append(move.isEnpassantCapture()).append(move.getEnpassantPieceSquare())
+				.append(move.isEndGameMarked()).append(move.getEndGameMark()).append('\n');
+
+			if (move.isEndGameMarked()) {
+				continue;
+			}
+
+			buff.append(move.getFEN()).append('\n');
+			buff.append(move.graphEncoding()).append('\n');
+			buff.append(move.graphEncodingForQuery()).append('\n');
+		}
+
+		return buff.toString();
+	}
+
+	static String sha1(String s) throws Exception {
+		StringBuilder hex = new StringBuilder();
+
+		for (byte b : MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"))) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return hex.toString();
+	}
+
+	static List<String> digests(File pgn) throws Exception {
+		List<String> digests = new ArrayList<String>();
+
+		for (PGNGame game : new PGNSource(pgn).listGames()) {
+			digests.add(sha1(dump(game)));
+		}
+
+		return digests;
+	}
+
+	@Test
+	public void gamesAreParsedAndEncodedAsBefore() throws Exception {
+		List<String> expected = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("games.sha1"), "US-ASCII"));
+
+		try {
+			String line;
+
+			while ((line = in.readLine()) != null) {
+				expected.add(line.trim());
+			}
+		} finally {
+			in.close();
+		}
+
+		List<String> actual = digests(corpus());
+		assertEquals("games", expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("game " + (i + 1), expected.get(i), actual.get(i));
+		}
+	}
+
+	/**
+	 * Prints the digests of the games of a PGN file, one per line.
+	 */
+	public static void main(String[] args) throws Exception {
+		for (String digest : digests(args.length > 0 ? new File(args[0]) : corpus())) {
+			System.out.println(digest);
+		}
+	}
+
+}
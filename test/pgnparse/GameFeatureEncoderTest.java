@@ -0,0 +1,140 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * GameFeatureEncoder against GraphEncoder, which analyzes every position
+ * from scratch: the terms, their distances and the piece boundaries have
+ * to be the same, whatever position came before.
+ *
+ * @author Debasis
+ *
+ */
+public class GameFeatureEncoderTest {
+
+	/** the positions of every game of the corpus, game after game */
+	private static List<List<PGNMove>> games;
+
+	/**
+	 * Writes the terms as id:distance, a piece ends with a bar.
+	 */
+	private static class Recorder implements GraphEncoder.TermSink {
+
+		private final StringBuilder buffer = new StringBuilder();
+
+		@Override
+		public void term(int id, int distance) {
+			buffer.append(id).append(':').append(distance).append(' ');
+		}
+
+		@Override
+		public void endPiece() {
+			buffer.append('|');
+		}
+
+		String take() {
+			String terms = buffer.toString();
+			buffer.setLength(0);
+
+			return terms;
+		}
+	}
+
+	@BeforeClass
+	public static void readCorpus() throws Exception {
+		games = new ArrayList<List<PGNMove>>();
+
+		for (PGNGame game : new PGNSource(CorpusDigestTest.corpus()).listGames()) {
+			List<PGNMove> moves = new ArrayList<PGNMove>();
+			Iterator<PGNMove> iterator = game.getMovesIterator();
+
+			while (iterator.hasNext()) {
+				PGNMove move = iterator.next();
+
+				if (move.isEndGameMarked()) {
+					break;
+				}
+
+				moves.add(move);
+			}
+
+			games.add(moves);
+		}
+	}
+
+	private static void assertSameTerms(GameFeatureEncoder encoder, PGNMove move, boolean isDoc) {
+		Recorder expected = new Recorder();
+		Recorder actual = new Recorder();
+
+		new GraphEncoder().encode(move, isDoc, expected);
+		encoder.encode(move, isDoc, actual);
+
+		assertEquals(move.getFEN() + (isDoc ? " doc" : " query"), expected.take(), actual.take());
+	}
+
+	@Test
+	public void consecutivePositions() {
+		GameFeatureEncoder encoder = new GameFeatureEncoder();
+
+		for (List<PGNMove> moves : games) {
+			encoder.reset();
+
+			for (int i = 0; i < moves.size(); i++) {
+				// the query encoding now and then, from the same cache
+				assertSameTerms(encoder, moves.get(i), i % 7 != 3);
+			}
+		}
+	}
+
+	@Test
+	public void positionsOfOtherGames() {
+		GameFeatureEncoder encoder = new GameFeatureEncoder();
+
+		// one game after the other, without a reset in between
+		for (List<PGNMove> moves : games) {
+			for (PGNMove move : moves) {
+				assertSameTerms(encoder, move, true);
+			}
+		}
+	}
+
+	@Test
+	public void positionsInAnyOrder() {
+		List<PGNMove> positions = new ArrayList<PGNMove>();
+
+		for (List<PGNMove> moves : games) {
+			positions.addAll(moves);
+		}
+
+		Collections.shuffle(positions, new Random(20140706));
+		GameFeatureEncoder encoder = new GameFeatureEncoder();
+
+		for (int i = 0; i < positions.size(); i++) {
+			assertSameTerms(encoder, positions.get(i), i % 2 == 0);
+		}
+	}
+
+}
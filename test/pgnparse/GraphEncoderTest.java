@@ -0,0 +1,95 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.util.Iterator;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * GraphEncoder against the original piece classes, see
+ * ReferenceGraphEncoder.
+ *
+ * @author Debasis
+ *
+ */
+public class GraphEncoderTest {
+
+	private static final byte[] PIECES = {
+		PGNParser.WHITE_PAWN, PGNParser.WHITE_KNIGHT, PGNParser.WHITE_BISHOP,
+		PGNParser.WHITE_ROOK, PGNParser.WHITE_QUEEN, PGNParser.WHITE_KING,
+		PGNParser.BLACK_PAWN, PGNParser.BLACK_KNIGHT, PGNParser.BLACK_BISHOP,
+		PGNParser.BLACK_ROOK, PGNParser.BLACK_QUEEN, PGNParser.BLACK_KING
+	};
+
+	/**
+	 * Boards no game reaches: any number of any piece, pawns on the first
+	 * and last ranks, crowded and nearly empty boards.
+	 */
+	static byte[][] randomBoard(Random random) {
+		byte[][] board = new byte[8][8];
+		double density = random.nextDouble();
+
+		for (int file = 0; file < 8; file++) {
+			for (int rank = 0; rank < 8; rank++) {
+				if (random.nextDouble() < density) {
+					board[file][rank] = PIECES[random.nextInt(PIECES.length)];
+				}
+			}
+		}
+
+		return board;
+	}
+
+	private static void assertSameEncoding(String where, GraphEncoder encoder, byte[][] board) {
+		assertEquals(where, ReferenceGraphEncoder.encode(board, true), encoder.encode(board, true));
+		assertEquals(where, ReferenceGraphEncoder.encode(board, false), encoder.encode(board, false));
+	}
+
+	@Test
+	public void randomBoards() {
+		GraphEncoder encoder = new GraphEncoder();
+		Random random = new Random(20140706);
+
+		for (int i = 0; i < 5000; i++) {
+			byte[][] board = randomBoard(random);
+			assertSameEncoding(PGNMove.getFENStatic(board), encoder, board);
+		}
+	}
+
+	@Test
+	public void corpusPositions() throws Exception {
+		GraphEncoder encoder = new GraphEncoder();
+
+		for (PGNGame game : new PGNSource(CorpusDigestTest.corpus()).listGames()) {
+			Iterator<PGNMove> moves = game.getMovesIterator();
+
+			while (moves.hasNext()) {
+				PGNMove move = moves.next();
+
+				if (move.isEndGameMarked()) {
+					break;
+				}
+
+				assertSameEncoding(move.getFEN(), encoder, move.getBoard());
+				assertEquals(move.getFEN(), ReferenceGraphEncoder.encode(move.getBoard(), true), encoder.encode(move, true));
+			}
+		}
+	}
+
+}
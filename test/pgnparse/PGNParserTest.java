@@ -0,0 +1,239 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Move texts the SAN lexer has to take as the regular expressions did,
+ * games written with localized piece symbols, and the games of a stream
+ * source.
+ *
+ * @author Debasis
+ *
+ */
+public class PGNParserTest {
+
+	/**
+	 * Move text, the number of moves of the game (the result mark
+	 * included) and the FEN after the last one, as the first version of
+	 * the parser gave them. A move that cannot be read or played is
+	 * reported and ends the game there, without an exception; a few
+	 * illegal moves are played as written. The tests keep it that way,
+	 * as well as the disambiguation of a move by a piece standing next to
+	 * a pinned one.
+	 */
+	private static final Object[][] MOVE_TEXTS = {
+			{ "1.e4 e5 2.Nf9 Nc6", 2, "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nc6 3.Bb9", 4, "rnbqkbnr/pppp1ppp/8/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.Zf3", 2, "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nd4", 3, "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Ke3", 3, "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nc6 3.Bxc6", 5, "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.e5", 4, "rnbqkbnr/pppp1ppp/8/4P3/8/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nf6 3.Nxe5 Nxe4 4.Qe2 Nf6 5.Nc6+ Kf8", 11, "rnbq1k1r/pppp1ppp/2N2n2/8/8/8/PPPPQPPP/RNB1KB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.Q", 2, "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.O-O", 4, "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQ1RK1 w KQkq - 0 1" },
+			{ "1.e4 e5 2.exd5", 3, "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.e4", 3, "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nf6 3.Nh4 Nh5 4.Nf5 Nf4 5.Ng3 Ng6 6.Ne2", 12, "rnbqkb1r/pppp1ppp/6n1/4p3/4P3/8/PPPPNPPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.a4 a5 3.Ra3 Ra6 4.Rb3 Rb6 5.Rb4", 10, "1nbqkbnr/1ppp1ppp/1r6/p3p3/PR2P3/8/1PPP1PPP/1NBQKBNR w KQkq - 0 1" },
+			{ "1.e9", 0, "" },
+			{ "1.d4 e5 2.Nc3 Bb4 3.Nf3 Nc6 4.Ng5 d6 5.Ne4", 10, "r1bqk1nr/ppp2ppp/2np4/4p3/1b1PN3/2N5/PPP1PPPP/R1BQKB1R w KQkq - 0 1" },
+			{ "1.d4 e5 2.Nc3 Bb4 3.Nf3 Nc6 4.Ng5 d6 5.Nge4", 10, "r1bqk1nr/ppp2ppp/2np4/4p3/1b1PN3/2N5/PPP1PPPP/R1BQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nc6 3.Nc3 Nf6 4.d3 Bb4 5.Bd2 d6 6.Nd5 Bg4 7.h3 Bxf3 8.Qxf3 Nd4 9.Qd1 c6 10.Nxb4", 20, "r2qk2r/pp3ppp/2pp1n2/4p3/1N1nP3/3P3P/PPPB1PP1/R2QKB1R w KQkq - 0 1" },
+			{ "1.e4 d5 2.exd5 Qxd5 3.Nc3 Qe5+ 4.Be2 Bf5 5.d4 Qe6 6.Nf3 Nc6 7.O-O O-O-O 8.Bg5 Qxe2 9.Qxe2", 18, "2kr1bnr/ppp1pppp/2n5/5bB1/3P4/2N2N2/PPP1QPPP/R4RK1 w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 d6 3.Bc4 Bg4 4.Nxe5 Bxd1 5.Bxf7+ Ke7 6.Nd5#", 11, "rn1q1bnr/ppp1kBpp/3p4/4N3/4P3/8/PPPP1PPP/RNBbK2R w KQkq - 0 1" },
+			{ "1.e4 e5 2.f4 exf4 3.Nf3 g5 4.h4 g4 5.Ne5 Nf6 6.Bc4 d5 7.exd5 Bd6 8.d4 Nh5 9.Bb5+ c6 10.dxc6 bxc6 11.Nxc6 Nxc6", 23, "r1bqk2r/p4p1p/2nb4/1B5n/3P1ppP/8/PPP3P1/RNBQK2R w KQkq - 0 1" },
+			{ "1.e4! e5?! 2.Nf3!! Nc6?? 3.Bb5!? a6", 0, "" },
+			{ "1.e4 {best by test} e5 2.Nf3 (2.f4 exf4) Nc6", 4, "rnbqkbnr/pppp1ppp/8/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 $1 e5 $2 2.Nf3 $14 Nc6", 2, "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nc6 3.Bc4 Nf6 4.0-0 Bc5", 9, "r1bqk2r/pppp1ppp/2n2n2/2b1p3/2B1P3/5N2/PPPP1PPP/RNBQ1RK1 w KQkq - 0 1" },
+			{ "1.e4 d5 2.e5 f5 3.exf6 e.p. e6", 7, "rnbqkbnr/ppp3pp/4pP2/3p4/8/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 d5 2.e5 f5 3.exf6 gxf6", 7, "rnbqkbnr/ppp1p2p/5p2/3p4/8/8/PPPP1PPP/RNBQKBNR w KQkq - 0 1" },
+			{ "1.h4 g5 2.hxg5 h6 3.gxh6 Nf6 4.h7 Ng8 5.hxg8=Q", 10, "rnbqkbQr/pppppp2/8/8/8/8/PPPPPPP1/RNBQKBNR w KQkq - 0 1" },
+			{ "1.h4 g5 2.hxg5 h6 3.gxh6 Nf6 4.h7 Ng8 5.hxg8Q", 8, "rnbqkb1r/pppppp1P/5n2/8/8/8/PPPPPPP1/RNBQKBNR w KQkq - 0 1" },
+			{ "1.h4 g5 2.hxg5 h6 3.gxh6 Nf6 4.h7 Ng8 5.hxg8=N", 10, "rnbqkbNr/pppppp2/8/8/8/8/PPPPPPP1/RNBQKBNR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Qh5 Nc6 3.Bc4 Nf6 4.Qxf7#", 8, "r1bqkb1r/pppp1Qpp/2n2n2/4p3/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Qh5 Nc6 3.Bc4 Nf6 4.Qxf7++", 8, "r1bqkb1r/pppp1Qpp/2n2n2/4p3/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 0 1" },
+			{ "1.e4 e5 2.Ng1f3 Nb8c6", 5, "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.N1f3", 4, "rnbqkbnr/pppp1ppp/8/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nc6 3.Nc3 Nf6 4.Nd5 Nd4 5.Nxf6+ Qxf6 6.Nxd4 exd4 7.Qe2 Qe6 8.Qb5 Qd6 9.Qbd3", 18, "r1b1kb1r/pppp1ppp/3q4/8/3pP3/3Q4/PPPP1PPP/R1B1KB1R w KQkq - 0 1" },
+			{ "1. e4 e5 2. Nf3", 4, "rnbqkbnr/pppp1ppp/8/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1" },
+			{ "1.e4 e5 2.Nf3 Nc6 3.Bb5 a6 4.Ba4 Nf6 5.O-O Be7 6.Re1 b5 7.Bb3 O-O 8.c3 d5 9.exd5 Nxd5 10.Nxe5 Nxe5 11.Rxe5 c6 12.d4 Bd6 13.Re1 Qh4 14.g3 Qh3 15.Be3 Bg4 16.Qd3 Rae8", 33, "4rrk1/5ppp/p1pb4/1p1n4/3P2b1/1BPQB1Pq/PP3P1P/RN2R1K1 w KQkq - 0 1" }
+	};
+
+	private static List<PGNMove> moves(PGNGame game) {
+		List<PGNMove> moves = new ArrayList<PGNMove>();
+		Iterator<PGNMove> i = game.getMovesIterator();
+
+		while (i.hasNext()) {
+			moves.add(i.next());
+		}
+
+		return moves;
+	}
+
+	@Test
+	public void moveTextsAreParsedAsBefore() throws Exception {
+		for (Object[] row : MOVE_TEXTS) {
+			String pgn = "[Event \"x\"]\n[Result \"*\"]\n\n" + row[0] + " *\n";
+			List<PGNGame> games = new PGNSource(pgn).listGames();
+			assertEquals((String)row[0], 1, games.size());
+
+			List<PGNMove> moves = moves(games.get(0));
+			assertEquals((String)row[0], row[1], moves.size());
+
+			String fen = moves.isEmpty() ? "" : moves.get(moves.size() - 1).getFEN();
+			assertEquals((String)row[0], row[2], fen);
+		}
+	}
+
+	/**
+	 * Writes the moves of an English PGN text with the German symbols.
+	 */
+	private static String germanize(String pgn) {
+		StringBuilder buff = new StringBuilder();
+
+		for (String line : pgn.split("\n", -1)) {
+			if (!line.startsWith("[")) {
+				line = line.replace('N', 'S').replace('B', 'L').replace('R', 'T').replace('Q', 'D');
+			}
+
+			buff.append(line).append('\n');
+		}
+
+		return buff.toString();
+	}
+
+	/**
+	 * Counts the bytes read from a stream.
+	 */
+	private static class CountingStream extends FilterInputStream {
+		int count;
+
+		CountingStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+	private static String lastFEN(PGNGame game) {
+		List<PGNMove> moves = moves(game);
+		return moves.isEmpty() ? "" : moves.get(moves.size() - 1).getFEN();
+	}
+
+	@Test
+	public void streamSourcesAreReadAsTheGamesAreWanted() throws Exception {
+		String pgn = new PGNSource(CorpusDigestTest.corpus()).getText();
+		byte[] bytes = pgn.getBytes();
+		List<PGNGame> expected = new PGNSource(pgn).listGames();
+
+		// the first game does not read the whole stream
+		CountingStream in = new CountingStream(new ByteArrayInputStream(bytes));
+		PGNGameIterator games = new PGNSource(in).gameIterator();
+		try {
+			assertEquals(lastFEN(expected.get(0)), lastFEN(games.next()));
+			assertTrue(in.count < bytes.length / 2);
+		} finally {
+			games.close();
+		}
+
+		List<PGNGame> streamed = new PGNSource(new ByteArrayInputStream(bytes)).listGames();
+		assertEquals(expected.size(), streamed.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("game " + (i + 1), lastFEN(expected.get(i)), lastFEN(streamed.get(i)));
+		}
+
+		// a stream is read once, unless its text is kept
+		PGNSource source = new PGNSource(new ByteArrayInputStream(bytes));
+		source.openReader(false).close();
+		try {
+			source.getText();
+			fail("read a stream twice");
+		} catch (IllegalStateException e) {
+		}
+
+		source = new PGNSource(new ByteArrayInputStream(bytes));
+		assertEquals(pgn, source.getText());
+		assertEquals(expected.size(), source.listGamesParallel(2).size());
+		assertEquals(expected.size(), source.listGames().size());
+	}
+
+	@Test
+	public void localizedSymbolsGiveTheSameGames() throws Exception {
+		String pgn = new PGNSource(CorpusDigestTest.corpus()).getText();
+		List<PGNGame> english = new PGNSource(pgn).listGames();
+
+		PGNSource german = new PGNSource(germanize(pgn));
+		german.setParser(new PGNParser("B", "S", "L", "T", "D", "K"));
+
+		// parsed in parallel, while the default parser is used by the static methods
+		List<PGNGame> localized = german.listGamesParallel(4);
+		assertEquals(english.size(), localized.size());
+		assertEquals(english.size(), PGNParser.parse(pgn).size());
+
+		for (int i = 0; i < english.size(); i++) {
+			List<PGNMove> expected = moves(english.get(i));
+			List<PGNMove> actual = moves(localized.get(i));
+			assertEquals("game " + (i + 1), expected.size(), actual.size());
+
+			for (int j = 0; j < expected.size(); j++) {
+				PGNMove e = expected.get(j);
+				PGNMove a = actual.get(j);
+				String where = "game " + (i + 1) + " move " + e.getFullMove();
+
+				assertEquals(where, e.getFromSquare(), a.getFromSquare());
+				assertEquals(where, e.getToSquare(), a.getToSquare());
+				assertEquals(where, e.isCaptured(), a.isCaptured());
+				assertEquals(where, e.isPromoted(), a.isPromoted());
+				assertEquals(where, e.isCastle(), a.isCastle());
+
+				if (!e.isEndGameMarked()) {
+					assertEquals(where, e.getFEN(), a.getFEN());
+					assertEquals(where, e.graphEncoding(), a.graphEncoding());
+				}
+			}
+		}
+	}
+
+}
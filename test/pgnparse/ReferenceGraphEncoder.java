@@ -0,0 +1,633 @@
+/*
+ * This file is part of PGNParse.
+ *
+ * PGNParse is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PGNParse is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PGNParse.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pgnparse;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import yacql.PayloadAnalyzer;
+
+/**
+ * The graph encoding as PGNMove.analyzeAll wrote it before GraphEncoder:
+ * an object per piece, which walks the board array square by square and
+ * keeps the squares it reaches, attacks, defends and ray-attacks in
+ * lists. The classes are the original ones, kept as the oracle the
+ * encoders are tested against.
+ *
+ * @author Debasis
+ *
+ */
+final class ReferenceGraphEncoder {
+
+	private ReferenceGraphEncoder() {
+	}
+
+	/**
+	 *
+	 * @param board indexed [file][rank]
+	 * @param isDoc whether the reachable squares are encoded
+	 * @return the encoding, one line per piece
+	 */
+	static String encode(byte[][] board, boolean isDoc) {
+		StringBuffer buff = new StringBuffer();
+
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				AbstractChessPiece thisPiece;
+
+				try {
+					thisPiece = ChessPieceGenerator.createPiece(new BoardCoordinate(i, j, board));
+				} catch (Exception ex) {
+					throw new IllegalStateException(ex);
+				}
+
+				if (thisPiece == null) {
+					continue;
+				}
+
+				thisPiece.analyze();
+				buff.append(thisPiece.toString(isDoc));
+				buff.append("\n");
+			}
+		}
+
+		return buff.toString();
+	}
+
+	interface ChessPiece {
+		void analyze();
+	}
+
+	static abstract class AbstractChessPiece implements ChessPiece {
+
+		int color;
+		int rowpos;
+		int colpos;
+
+		// Encoding symbols (arbitrarily chosen) for piece connectivity
+		// Assume: these symbols aren't a part of the PGN data
+		static final String attackingMarker = ">";
+		static final String defenseMarker = "<";
+		static final String rayAttackMarker = "=";
+
+		List<BoardCoordinate> reachableSquares;
+		List<BoardCoordinate> attackingSquares;
+		List<BoardCoordinate> rayAttackingSquares;
+		List<BoardCoordinate> defenseSquares;
+
+		BoardCoordinate bc;
+
+		public List<BoardCoordinate> getReachable() { return reachableSquares; }
+		public List<BoardCoordinate> getAttacking() { return attackingSquares; }
+		public List<BoardCoordinate> getRayAttcking() { return rayAttackingSquares; }
+		public List<BoardCoordinate> getDefenses() { return defenseSquares; }
+
+		public AbstractChessPiece(BoardCoordinate bc, int pieceCode) throws Exception {
+			rowpos = bc.row;
+			colpos = bc.col;
+			color = bc.board[bc.row][bc.col] > 0 ? 1 : bc.board[bc.row][bc.col] == 0 ? 0 : -1;
+
+			if (Math.abs(bc.board[bc.row][bc.col]) != Math.abs(pieceCode))
+				throw new Exception("Unexpected chess piece found at " + bc.row + ", " + bc.col);
+
+			this.bc = bc;
+
+			this.reachableSquares = new LinkedList<BoardCoordinate>();
+			this.attackingSquares = new LinkedList<BoardCoordinate>();
+			this.defenseSquares = new LinkedList<BoardCoordinate>();
+			this.rayAttackingSquares = new LinkedList<BoardCoordinate>();
+		}
+
+		boolean isOpponentPiece(byte piece) {
+			return Math.signum(piece) * this.color == -1 ? true : false;
+		}
+
+		boolean isFriendPiece(byte piece) {
+			return Math.signum(piece) * this.color == 1 ? true : false;
+		}
+
+		public void analyze() {
+			this.reachableSquares.clear();
+			this.attackingSquares.clear();
+			this.defenseSquares.clear();
+			this.rayAttackingSquares.clear();
+		}
+
+		String encodeReachable(BoardCoordinate currPos, BoardCoordinate reachableSquare) {
+			StringBuffer buff = new StringBuffer();
+			String pieceName = currPos.getPiece();
+			int dist = reachableSquare.getDistance(currPos);
+			// the max possible distance is 8
+			float wt = -7/64.0f * dist + 1;
+			buff.append(pieceName);
+			buff.append(reachableSquare.toString());
+			buff.append(PayloadAnalyzer.delim);
+			buff.append(wt);
+			return buff.toString();
+		}
+
+		public String toString(boolean isDoc) {
+			StringBuffer buff = new StringBuffer();
+			buff.append(bc.toString()).append(" ");
+
+			if (isDoc) {
+				for (BoardCoordinate square: this.getReachable()) {
+					//buff.append(bc.getPiece() + square.toString() + " ");
+					buff.append(encodeReachable(bc, square));
+					buff.append(" ");
+				}
+			}
+			for (BoardCoordinate square: this.getAttacking()) {
+				buff.append(bc.getPiece() + attackingMarker + square.toString() + " ");
+			}
+			for (BoardCoordinate square: this.getDefenses()) {
+				buff.append(bc.getPiece() + defenseMarker + square.toString() + " ");
+			}
+			for (BoardCoordinate square: this.getRayAttcking()) {
+				buff.append(bc.getPiece() + rayAttackMarker + square.toString() + " ");
+			}
+
+			return buff.toString();
+		}
+	}
+
+	static class Pawn extends AbstractChessPiece {
+
+		public Pawn(BoardCoordinate bc) throws Exception {
+			super(bc, PGNParser.BLACK_PAWN);
+		}
+
+		@Override
+		public void analyze() {
+
+			super.analyze();
+			int i = rowpos;
+			int j = colpos + 1;
+			BoardCoordinate square = null;
+
+			if (i < 8 && j < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY)
+					this.reachableSquares.add(square);
+			}
+
+			i = rowpos + 1;
+			j = colpos + 1;
+
+			if (i < 8 && j < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (isOpponentPiece(bc.board[i][j]))
+					this.attackingSquares.add(square);
+			}
+
+			i = rowpos - 1;
+			j = colpos + 1;
+
+			if (i >= 0 && j < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (isOpponentPiece(bc.board[i][j]))
+					this.attackingSquares.add(square);
+			}
+		}
+	}
+
+	static class Knight extends AbstractChessPiece {
+
+		public Knight(BoardCoordinate bc) throws Exception  {
+			super(bc, PGNParser.BLACK_KNIGHT);
+		}
+
+		@Override
+		public void analyze() {
+
+			super.analyze();
+			int i, j, ki, kj, di, dj, ii, jj;
+			BoardCoordinate square = null;
+
+			i = rowpos;
+			j = colpos;
+
+			for (ki = -1; ki <= 1; ki++) {
+				i = rowpos + ki;
+
+				for (kj = -1; kj <= 1; kj++) {
+					j = colpos + kj;
+
+					if (!(ki * kj == 0))
+						continue;
+
+					for (di = -1; di <=1; di += 2) {
+						ii = i + di;
+
+						for (dj = -1; dj <=1; dj += 2) {
+							jj = j + dj;
+
+							if (!(ii >= 0 && jj >= 0 && ii < 8 && jj < 8))
+								continue;
+
+							// check the fork by chess-board distance
+							if (Math.abs(rowpos-ii) + Math.abs(colpos-jj) <= 2)
+								continue;
+
+							square = new BoardCoordinate(ii, jj, bc.board[ii][jj]);
+							if (bc.board[ii][jj] == PGNParser.EMPTY)
+								this.reachableSquares.add(square);
+
+							else if (isOpponentPiece(bc.board[ii][jj]))
+								this.attackingSquares.add(square);
+
+							else if (isFriendPiece(bc.board[ii][jj]))
+								this.defenseSquares.add(square);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	static class King extends Queen {
+
+		public King(BoardCoordinate bc) throws Exception  {
+			super(bc, PGNParser.BLACK_KING);
+		}
+
+		@Override
+		public void analyze() {
+
+			super.analyze();    // delegate responsibility to the queen
+
+			// Filter the list on the basis of chess-board distance
+			for (Iterator<BoardCoordinate> iter = this.reachableSquares.iterator(); iter.hasNext(); ) {
+				if (iter.next().getDistance(bc) > 1)
+					iter.remove();
+			}
+			for (Iterator<BoardCoordinate> iter = this.defenseSquares.iterator(); iter.hasNext(); ) {
+				if (iter.next().getDistance(bc) > 1)
+					iter.remove();
+			}
+			for (Iterator<BoardCoordinate> iter = this.attackingSquares.iterator(); iter.hasNext(); ) {
+				if (iter.next().getDistance(bc) > 1)
+					iter.remove();
+			}
+			rayAttackingSquares.clear();
+		}
+	}
+
+	static class Queen extends AbstractChessPiece {
+
+		// A Queen esentially (is-a) (or has-a in case of Java since it
+		// doesn't support multiple inheritance.
+		Bishop bishop;
+		Rook   rook;
+
+		Queen(BoardCoordinate bc, int code) throws Exception {
+			super(bc, code);
+			bishop = new Bishop(bc, code);
+			rook = new Rook(bc, code);
+		}
+
+		Queen(BoardCoordinate bc) throws Exception {
+			super(bc, PGNParser.BLACK_QUEEN);
+			bishop = new Bishop(bc, PGNParser.BLACK_QUEEN);
+			rook = new Rook(bc, PGNParser.BLACK_QUEEN);
+		}
+
+		@Override
+		public void analyze() {
+
+			super.analyze();
+
+			bishop.analyze();
+			this.reachableSquares.addAll(bishop.reachableSquares);
+			this.attackingSquares.addAll(bishop.attackingSquares);
+			this.defenseSquares.addAll(bishop.defenseSquares);
+			this.rayAttackingSquares.addAll(bishop.rayAttackingSquares);
+
+			rook.analyze();
+			this.reachableSquares.addAll(rook.reachableSquares);
+			this.attackingSquares.addAll(rook.attackingSquares);
+			this.defenseSquares.addAll(rook.defenseSquares);
+			this.rayAttackingSquares.addAll(rook.rayAttackingSquares);
+		}
+
+	}
+
+	static class Rook extends AbstractChessPiece {
+
+		public Rook(BoardCoordinate bc, int code) throws Exception  {
+			super(bc, code);
+		}
+
+		public Rook(BoardCoordinate bc) throws Exception  {
+			super(bc, PGNParser.BLACK_ROOK);
+		}
+
+		@Override
+		public void analyze() {
+
+			super.analyze();
+
+			BoardCoordinate square = null;
+			List<BoardCoordinate> attackList = null;
+			int i, j;
+			boolean rayAttack;
+			boolean blocked;
+
+			// left-hrizontal
+			i = rowpos - 1;
+			j = colpos;
+			rayAttack = false;
+			blocked = false;
+
+			// left-horizontal
+			while (i >= 0) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					defenseSquares.add(square);
+					blocked = true;
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+					blocked = true;
+				}
+				i--;
+			}
+
+			// right-hrizontal
+			i = rowpos + 1;
+			j = colpos;
+			rayAttack = false;
+			blocked = false;
+
+			while (i < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					defenseSquares.add(square);
+					blocked = true;
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				i++;
+			}
+
+			// up-vertical
+			i = rowpos;
+			j = colpos - 1;
+			rayAttack = false;
+			blocked = false;
+
+			while (j >= 0) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					blocked = true;
+					defenseSquares.add(square);
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				j--;
+			}
+
+			// down-vertical
+			i = rowpos;
+			j = colpos + 1;
+			rayAttack = false;
+			blocked = false;
+
+			while (j < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					blocked = true;
+					defenseSquares.add(square);
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				j++;
+			}
+
+		}
+	}
+
+	static class Bishop extends AbstractChessPiece {
+
+		public Bishop(BoardCoordinate bc, int code) throws Exception  {
+			super(bc, code);
+		}
+
+		public Bishop(BoardCoordinate bc) throws Exception  {
+			super(bc, PGNParser.BLACK_BISHOP);
+		}
+
+		@Override
+		public void analyze() {
+
+			super.analyze();
+
+			BoardCoordinate square = null;
+			List<BoardCoordinate> attackList = null;
+			int i, j;
+			boolean rayAttack;
+			boolean blocked;
+
+			// upper-left-right diagonal
+			i = rowpos - 1;
+			j = colpos - 1;
+			rayAttack = false;
+			blocked = false;
+
+			while (i >=0 && j >= 0) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					blocked = true;
+					defenseSquares.add(square);
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				i--;
+				j--;
+			}
+
+			// lower  left-right diagonal
+			i = rowpos + 1;
+			j = colpos + 1;
+			blocked = false;
+			rayAttack = false;
+
+			while (i < 8 && j < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					blocked = true;
+					defenseSquares.add(square);
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				i++;
+				j++;
+			}
+
+			// upper-right-left diagonal
+			i = rowpos + 1;
+			j = colpos - 1;
+			blocked = false;
+			rayAttack = false;
+
+			while (i < 8 && j >=0) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					blocked = true;
+					defenseSquares.add(square);
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				i++;
+				j--;
+			}
+
+			// lower right-left diagonal
+			i = rowpos - 1;
+			j = colpos + 1;
+			blocked = false;
+			rayAttack = false;
+
+			while (i >= 0 && j < 8) {
+				square = new BoardCoordinate(i, j, bc.board[i][j]);
+				if (bc.board[i][j] == PGNParser.EMPTY && !blocked) {
+					reachableSquares.add(square);
+				}
+				else if (isFriendPiece(bc.board[i][j])) {
+					blocked = true;
+					defenseSquares.add(square);
+					break;
+				}
+				else if (isOpponentPiece(bc.board[i][j])) {
+					blocked = true;
+					attackList = rayAttack? rayAttackingSquares : attackingSquares;
+					attackList.add(square);
+					if (rayAttack)
+						break;  // ray attack of depth 1
+					rayAttack = true;
+				}
+				i--;
+				j++;
+			}
+		}
+	}
+
+	static class ChessPieceGenerator {
+
+		static AbstractChessPiece createPiece(BoardCoordinate bc) throws Exception {
+			// Generate the chess piece which corresponds to the current
+			// board position
+			AbstractChessPiece piece = null;
+			byte boardVal = bc.board[bc.row][bc.col];
+			int offset;
+
+			if (boardVal == PGNParser.EMPTY)
+				return null;
+
+			offset = Math.abs(boardVal - PGNParser.EMPTY);
+			switch (offset) {
+				case PGNParser.BLACK_BISHOP:
+					piece = new Bishop(bc);
+					break;
+				case PGNParser.BLACK_KNIGHT:
+					piece = new Knight(bc);
+					break;
+				case PGNParser.BLACK_ROOK:
+					piece = new Rook(bc);
+					break;
+				case PGNParser.BLACK_PAWN:
+					piece = new Pawn(bc);
+					break;
+				case PGNParser.BLACK_QUEEN:
+					piece = new Queen(bc);
+					break;
+				case PGNParser.BLACK_KING:
+					piece = new King(bc);
+			}
+			return piece;
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import pgnparse.PGNGame;
+import pgnparse.PGNMove;
+import pgnparse.PGNSource;
+
+/**
+ * BoardFeatureTokenStream against PayloadAnalyzer over the text encoding,
+ * which is how the positions were indexed before: the same terms, in the
+ * same order, with the same payloads.
+ *
+ * @author Debasis
+ */
+public class BoardFeatureTokenStreamTest {
+
+    static File corpus() throws Exception {
+        return new File(BoardFeatureTokenStreamTest.class.getResource("/pgnparse/games.pgn").toURI());
+    }
+
+    /**
+     * @param stream
+     * @return the terms, each with the weight in its payload after a '|'
+     */
+    private static String tokens(TokenStream stream) throws IOException {
+        CharTermAttribute charTermAtt = stream.hasAttribute(CharTermAttribute.class) ? stream.getAttribute(CharTermAttribute.class) : null;
+        FeatureTermAttribute featureTermAtt = stream.hasAttribute(FeatureTermAttribute.class) ? stream.getAttribute(FeatureTermAttribute.class) : null;
+        PayloadAttribute payloadAtt = stream.getAttribute(PayloadAttribute.class);
+        StringBuilder buff = new StringBuilder();
+
+        stream.reset();
+        while (stream.incrementToken()) {
+            if (featureTermAtt != null) {
+                featureTermAtt.fillBytesRef();
+                buff.append(featureTermAtt.getBytesRef().utf8ToString());
+            }
+            else {
+                buff.append(charTermAtt.toString());
+            }
+
+            BytesRef payload = payloadAtt.getPayload();
+            if (payload != null)
+                buff.append('|').append(PayloadHelper.decodeFloat(payload.bytes, payload.offset));
+            buff.append(' ');
+        }
+        stream.end();
+        return buff.toString();
+    }
+
+    private static String analyzed(String encoding) throws IOException {
+        TokenStream stream = new PayloadAnalyzer().tokenStream("pos", new StringReader(encoding));
+        try {
+            return tokens(stream);
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void gamePositions() throws Exception {
+        BoardFeatureTokenStream stream = new BoardFeatureTokenStream();
+        BoardFeatureTokenStream boardStream = new BoardFeatureTokenStream();
+
+        for (PGNGame game : new PGNSource(corpus()).listGames()) {
+            Iterator<PGNMove> moves = game.getMovesIterator();
+
+            while (moves.hasNext()) {
+                PGNMove move = moves.next();
+                if (move.isEndGameMarked())
+                    break;
+
+                String doc = analyzed(move.graphEncoding());
+                assertEquals(move.getFEN(), doc, tokens(stream.setMove(move, true)));
+                assertEquals(move.getFEN(), doc, tokens(boardStream.setBoard(move.getBoard(), true)));
+                assertEquals(move.getFEN(), analyzed(move.graphEncodingForQuery()), tokens(boardStream.setBoard(move.getBoard(), false)));
+            }
+        }
+    }
+
+    @Test
+    public void prunedFeaturesAreLeftOut() throws Exception {
+        // every white pawn on a square, and the squares white pawns reach
+        int[] df = new int[FeatureVocabulary.SIZE];
+        for (char file = 'a'; file <= 'h'; file++) {
+            for (char rank = '1'; rank <= '8'; rank++)
+                df[FeatureVocabulary.id("P" + file + rank)] = 10;
+        }
+        PrunedFeatures pruned = PrunedFeatures.fromDocFreqs(df, 10, 0.5f);
+        assertEquals(64, pruned.size());
+
+        BoardFeatureTokenStream stream = new BoardFeatureTokenStream().setPruned(pruned);
+
+        for (PGNGame game : new PGNSource(corpus()).listGames().subList(0, 20)) {
+            Iterator<PGNMove> moves = game.getMovesIterator();
+
+            while (moves.hasNext()) {
+                PGNMove move = moves.next();
+                if (move.isEndGameMarked())
+                    break;
+
+                StringBuilder expected = new StringBuilder();
+                for (String token : analyzed(move.graphEncoding()).split(" ")) {
+                    if (!token.startsWith("P") || token.length() > 3 && token.charAt(3) != '|')
+                        expected.append(token).append(' ');
+                }
+                assertEquals(move.getFEN(), expected.toString(), tokens(stream.setMove(move, true)));
+            }
+        }
+    }
+
+    @Test
+    public void streamCanBeReadAgain() throws Exception {
+        PGNGame game = new PGNSource(corpus()).listGames().get(0);
+        PGNMove move = game.getMovesIterator().next();
+
+        BoardFeatureTokenStream stream = new BoardFeatureTokenStream().setMove(move, true);
+        String first = tokens(stream);
+        assertFalse(first.isEmpty());
+        assertEquals(first, tokens(stream));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The ids, texts, bytes and hashes of the vocabulary have to agree with
+ * each other and with what Lucene makes of the term text.
+ *
+ * @author Debasis
+ */
+public class FeatureVocabularyTest {
+
+    @Test
+    public void idsAndTermsRoundTrip() {
+        Set<String> terms = new HashSet<String>();
+
+        for (int id = 0; id < FeatureVocabulary.SIZE; id++) {
+            String term = FeatureVocabulary.term(id);
+            assertTrue(term, terms.add(term));
+            assertEquals(term, id, FeatureVocabulary.id(term));
+            assertEquals(term, term.length() == 3, id < FeatureVocabulary.PIECE_SQUARE_TERMS);
+
+            BytesRef bytes = new BytesRef(term);
+            assertEquals(term, bytes, FeatureVocabulary.bytes(id));
+            assertEquals(term, bytes.hashCode(), FeatureVocabulary.hash(id));
+        }
+    }
+
+    @Test
+    public void termsOfTheEncoding() {
+        assertEquals("Nc3", FeatureVocabulary.term(FeatureVocabulary.id("Nc3")));
+        assertEquals("N>pd5", FeatureVocabulary.term(FeatureVocabulary.id("N>pd5")));
+        assertEquals("q<ka8", FeatureVocabulary.term(FeatureVocabulary.id("q<ka8")));
+        assertEquals("R=kh8", FeatureVocabulary.term(FeatureVocabulary.id("R=kh8")));
+    }
+
+    @Test
+    public void otherTermsHaveNoId() {
+        String[] terms = { "", "N", "Nc", "Nc9", "Ni3", "Xc3", "nc3|0.89", "N>pd", "N?pd5", "N>xd5", "N>pd9", "Nc3 " };
+
+        for (String term : terms)
+            assertEquals(term, -1, FeatureVocabulary.id(term));
+    }
+}
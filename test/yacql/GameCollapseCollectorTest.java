@@ -0,0 +1,232 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * GameCollapseCollector against the way the retriever collapsed the hits
+ * before: the top k positions from a TopScoreDocCollector, of which the
+ * first position of each game was kept. Those games are the best games
+ * overall, so they have to come first in the output of the collector,
+ * with the same positions and scores. The collector fills up the rest of
+ * the k games.
+ *
+ * The old filter left games with the same score in the order of a
+ * HashMap; here they are compared in the order of their positions, as the
+ * collector breaks ties.
+ *
+ * @author Debasis
+ */
+public class GameCollapseCollectorTest {
+
+    private static final int NUM_DOCS = 3000;
+    private static final int NUM_GAMES = 200;
+    private static final int NUM_TERMS = 20;
+
+    private static Directory dir;
+    private static DirectoryReader reader;
+    private static NumericDocValues gameIds;
+
+    @BeforeClass
+    public static void buildIndex() throws Exception {
+        dir = new RAMDirectory();
+        IndexWriterConfig iwcfg = new IndexWriterConfig(Version.LUCENE_44, new WhitespaceAnalyzer(Version.LUCENE_44));
+        // several segments, for the merge of the collectors
+        iwcfg.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+        IndexWriter writer = new IndexWriter(dir, iwcfg);
+        Random random = new Random(20140706);
+
+        try {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                StringBuilder text = new StringBuilder();
+                int numTerms = 1 + random.nextInt(6);
+                for (int j = 0; j < numTerms; j++)
+                    text.append('t').append(random.nextInt(NUM_TERMS)).append(' ');
+
+                Document doc = new Document();
+                doc.add(new TextField("pos", text.toString(), Field.Store.NO));
+                doc.add(new NumericDocValuesField(ChessPositionIndexer.GAME_ID_LABEL, random.nextInt(NUM_GAMES)));
+                writer.addDocument(doc);
+
+                if (i % 700 == 699)
+                    writer.commit();
+            }
+            Map<String, String> commitData = new HashMap<String, String>();
+            IndexSchema.addTo(commitData);
+            writer.setCommitData(commitData);
+        }
+        finally {
+            writer.close();
+        }
+
+        reader = DirectoryReader.open(dir);
+        assertTrue(reader.leaves().size() > 1);
+        gameIds = MultiDocValues.getNumericValues(reader, ChessPositionIndexer.GAME_ID_LABEL);
+    }
+
+    @AfterClass
+    public static void closeIndex() throws Exception {
+        reader.close();
+        dir.close();
+    }
+
+    private static List<Query> queries() {
+        List<Query> queries = new ArrayList<Query>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 40; i++) {
+            BooleanQuery query = new BooleanQuery();
+            int numClauses = 1 + random.nextInt(4);
+            for (int j = 0; j < numClauses; j++)
+                query.add(new TermQuery(new Term("pos", "t" + random.nextInt(NUM_TERMS))), BooleanClause.Occur.SHOULD);
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    /**
+     * The filter of the first retriever, with the game ids from the doc
+     * values instead of a stored field.
+     */
+    private static ScoreDoc[] filter(ScoreDoc[] docs) {
+        Map<Integer, ScoreDoc> scoreMap = new LinkedHashMap<Integer, ScoreDoc>();
+        for (int i = 0; i < docs.length; i++) {
+            int gameId = (int)gameIds.get(docs[i].doc);
+            if (scoreMap.get(gameId) == null) {
+                scoreMap.put(gameId, docs[i]);
+            }
+        }
+
+        ScoreDoc[] newDocs = scoreMap.values().toArray(new ScoreDoc[0]);
+        Arrays.sort(newDocs, new Comparator<ScoreDoc>() {
+            @Override
+            public int compare(ScoreDoc a, ScoreDoc b) {
+                if (a.score != b.score)
+                    return a.score < b.score? 1 : -1;
+                return a.doc - b.doc;
+            }
+        });
+        return newDocs;
+    }
+
+    private static void assertPrefix(String where, ScoreDoc[] expected, ScoreDoc[] actual) {
+        assertTrue(where, expected.length <= actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(where + " rank " + i, expected[i].doc, actual[i].doc);
+            assertEquals(where + " rank " + i, expected[i].score, actual[i].score, 0f);
+        }
+    }
+
+    private static void assertGames(String where, ScoreDoc[] hits, int k) {
+        Set<Integer> games = new HashSet<Integer>();
+        for (int i = 0; i < hits.length; i++) {
+            int game = ((GameCollapseCollector.GameScoreDoc)hits[i]).game;
+            assertEquals(where, gameIds.get(hits[i].doc), game);
+            assertTrue(where + " game " + game + " twice", games.add(game));
+            if (i > 0)
+                assertTrue(where, hits[i - 1].score >= hits[i].score);
+        }
+        assertTrue(where, hits.length <= k);
+    }
+
+    @Test
+    public void bestGamesComeFirst() throws Exception {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        int[] ks = { 1, 5, 20, 100, NUM_GAMES + 10 };
+
+        for (Query query : queries()) {
+            for (int k : ks) {
+                String where = query + " k=" + k;
+
+                // out of order, as the collector, so that both get the same scorer and scores
+                TopScoreDocCollector topCollector = TopScoreDocCollector.create(k, false);
+                searcher.search(query, topCollector);
+                ScoreDoc[] filtered = filter(topCollector.topDocs().scoreDocs);
+
+                GameCollapseCollector collector = new GameCollapseCollector(k);
+                searcher.search(query, collector);
+                ScoreDoc[] hits = collector.topDocs();
+
+                assertPrefix(where, filtered, hits);
+                assertGames(where, hits, k);
+                assertEquals(where, topCollector.getTotalHits(), collector.getTotalHits());
+            }
+        }
+    }
+
+    @Test
+    public void mergedSegmentsGiveTheSameGames() throws Exception {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            GameSearcher gameSearcher = new GameSearcher(reader, executor);
+
+            for (Query query : queries()) {
+                for (int k = 1; k <= 64; k *= 4) {
+                    GameCollapseCollector collector = new GameCollapseCollector(k);
+                    searcher.search(query, collector);
+                    ScoreDoc[] expected = collector.topDocs();
+
+                    GameCollapseCollector merged = gameSearcher.searchGames(query, k);
+                    ScoreDoc[] actual = merged.topDocs();
+
+                    assertEquals(query + " k=" + k, expected.length, actual.length);
+                    assertPrefix(query + " k=" + k, expected, actual);
+                    assertEquals(collector.getTotalHits(), merged.getTotalHits());
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void noGamesWanted() throws Exception {
+        GameCollapseCollector collector = new GameCollapseCollector(0);
+        new IndexSearcher(reader).search(queries().get(0), collector);
+        assertEquals(0, collector.size());
+        assertEquals(0, collector.topDocs().length);
+    }
+}
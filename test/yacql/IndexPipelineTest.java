@@ -0,0 +1,147 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The tasks of an IndexPipeline have to be sequenced in the order they
+ * were submitted, and any error of a task, an Error too, has to reach
+ * finish() instead of stalling the pipeline or being lost.
+ *
+ * @author Debasis
+ */
+public class IndexPipelineTest {
+
+    private static final int NUM_TASKS = 200;
+
+    /**
+     * Fails at one of its stages if it is the chosen one.
+     */
+    private static class Probe extends IndexPipeline.Task {
+        final int n;
+        final int failing;
+        final String stage;
+        final Throwable error;
+        final List<Integer> sequenced;
+
+        Probe(int n, int failing, String stage, Throwable error, List<Integer> sequenced) {
+            this.n = n;
+            this.failing = failing;
+            this.stage = stage;
+            this.error = error;
+            this.sequenced = sequenced;
+        }
+
+        private void failAt(String at) throws Exception {
+            if (n != failing || !stage.equals(at))
+                return;
+            if (error instanceof Exception)
+                throw (Exception)error;
+            if (error instanceof Error)
+                throw (Error)error;
+        }
+
+        @Override
+        void parse() throws Exception {
+            // the later tasks get ahead of the earlier ones
+            Thread.sleep((NUM_TASKS - n) % 3);
+            failAt("parse");
+        }
+
+        @Override
+        void sequence() {
+            sequenced.add(n);
+            try {
+                failAt("sequence");
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        void index() throws Exception {
+            failAt("index");
+        }
+    }
+
+    private static IndexPipeline pipeline() {
+        Properties prop = new Properties();
+        prop.setProperty("parse_threads", "4");
+        prop.setProperty("index_threads", "2");
+        prop.setProperty("max_batches", "8");
+        return new IndexPipeline(prop);
+    }
+
+    /**
+     * Runs the tasks, one of them failing, and returns what finish()
+     * throws.
+     */
+    private static Exception run(int failing, String stage, Throwable error, List<Integer> sequenced) {
+        IndexPipeline pipeline = pipeline();
+        pipeline.start();
+        try {
+            try {
+                for (int n = 0; n < NUM_TASKS; n++) {
+                    pipeline.submit(new Probe(n, failing, stage, error, sequenced));
+                }
+            }
+            finally {
+                pipeline.finish();
+            }
+        }
+        catch (Exception e) {
+            return e;
+        }
+        return null;
+    }
+
+    @Test(timeout = 60000)
+    public void tasksAreSequencedInOrder() {
+        List<Integer> sequenced = Collections.synchronizedList(new ArrayList<Integer>());
+        assertNull(run(-1, "", null, sequenced));
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int n = 0; n < NUM_TASKS; n++) {
+            expected.add(n);
+        }
+        assertEquals(expected, sequenced);
+    }
+
+    @Test(timeout = 60000)
+    public void exceptionsReachFinish() {
+        List<Integer> sequenced = Collections.synchronizedList(new ArrayList<Integer>());
+        Exception error = new IllegalStateException("parse");
+        assertSame(error, run(50, "parse", error, sequenced));
+        // the tasks after a failed one are dropped
+        assertFalse(sequenced.contains(50));
+        assertFalse(sequenced.contains(51));
+    }
+
+    @Test(timeout = 60000)
+    public void errorsReachFinish() {
+        for (String stage : new String[] {"parse", "sequence", "index"}) {
+            Error error = new StackOverflowError(stage);
+            Exception thrown = run(50, stage, error, Collections.synchronizedList(new ArrayList<Integer>()));
+            assertTrue(stage, thrown instanceof ExecutionException);
+            assertSame(stage, error, thrown.getCause());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void runtimeExceptionsOfTheSequencerReachFinish() {
+        Exception error = new IllegalArgumentException("sequence");
+        Exception thrown = run(50, "sequence", error, Collections.synchronizedList(new ArrayList<Integer>()));
+        assertTrue(thrown instanceof RuntimeException);
+        assertSame(error, thrown.getCause());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package yacql;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import pgnparse.PGNGame;
+import pgnparse.PGNMove;
+import pgnparse.PGNSource;
+
+/**
+ * The boards and occurrences of a PositionTable have to be the same
+ * whether they fit in its buffer or are sorted out on disk.
+ *
+ * @author Debasis
+ */
+public class PositionTableTest {
+
+    /**
+     * Adds every position of the corpus, the games a number of times
+     * over, and reads the documents back.
+     *
+     * @return one line per occurrence: the board, docid, game id and ply
+     */
+    private static List<String> occurrences(int capacity, int copies) throws Exception {
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        PositionTable table = new PositionTable(capacity, tmpDir);
+        List<PGNGame> games = new PGNSource(BoardFeatureTokenStreamTest.corpus()).listGames();
+        int docId = 1;
+        int gameId = 1;
+
+        for (int copy = 0; copy < copies; copy++) {
+            for (PGNGame game : games) {
+                Iterator<PGNMove> moves = game.getMovesIterator();
+                for (int num = 0; moves.hasNext(); num++) {
+                    PGNMove move = moves.next();
+                    if (move.isEndGameMarked())
+                        break;
+                    table.add(move, docId++, gameId, num);
+                }
+                gameId++;
+            }
+        }
+
+        Directory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_44, new WhitespaceAnalyzer(Version.LUCENE_44)));
+        int numPositions;
+        try {
+            numPositions = table.write(writer, new BoardFeatureTokenStream());
+        }
+        finally {
+            writer.close();
+        }
+        assertEquals(0, table.getNumRuns());
+
+        List<String> lines = new ArrayList<String>();
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            List<String> boards = new ArrayList<String>();
+            for (AtomicReaderContext leaf : reader.leaves()) {
+                BinaryDocValues occ = leaf.reader().getBinaryDocValues(ChessPositionIndexer.OCCURRENCES_LABEL);
+                BinaryDocValues packed = leaf.reader().getBinaryDocValues(ChessPositionIndexer.GAME_BOARD_LABEL);
+                BytesRef bytes = new BytesRef();
+
+                for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                    packed.get(doc, bytes);
+                    String board = Arrays.toString(Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length));
+                    if (boards.isEmpty() || !boards.get(boards.size() - 1).equals(board))
+                        boards.add(board);
+
+                    occ.get(doc, bytes);
+                    assertTrue(bytes.length <= PositionTable.MAX_OCCURRENCE_BYTES);
+                    int[] occurrences = PositionTable.decode(bytes);
+                    for (int i = 0; i < occurrences.length; i += 3) {
+                        lines.add(board + " " + occurrences[i] + " " + occurrences[i + 1] + " " + occurrences[i + 2]);
+                        // sorted on the docid within the document
+                        if (i > 0)
+                            assertTrue(occurrences[i - 3] < occurrences[i]);
+                    }
+                }
+            }
+            // the documents of a board follow each other
+            assertEquals(numPositions, boards.size());
+            assertEquals(numPositions, new HashSet<String>(boards).size());
+        }
+        finally {
+            reader.close();
+        }
+
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void spilledRunsGiveTheSameBoards() throws Exception {
+        List<String> inMemory = occurrences(1 << 20, 1);
+        List<String> spilled = occurrences(1000, 1);
+        assertEquals(inMemory.size(), spilled.size());
+        assertEquals(inMemory, spilled);
+    }
+
+    @Test
+    public void frequentBoardsAreSplit() throws Exception {
+        // the initial board alone has far more occurrences than fit in a value
+        List<String> inMemory = occurrences(1 << 20, 40);
+        List<String> spilled = occurrences(5000, 40);
+        assertEquals(inMemory, spilled);
+    }
+}